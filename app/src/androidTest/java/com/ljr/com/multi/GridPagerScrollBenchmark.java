@@ -0,0 +1,252 @@
+package com.ljr.com.multi;
+
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.espresso.action.CoordinatesProvider;
+import android.support.test.espresso.action.GeneralSwipeAction;
+import android.support.test.espresso.action.Press;
+import android.support.test.espresso.action.Swipe;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
+
+import com.ljr.com.multi.paging.GridPagerLayoutManager;
+import com.ljr.com.multi.paging.UIUtils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static android.support.test.espresso.Espresso.onView;
+import static android.support.test.espresso.matcher.ViewMatchers.withId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * End to end numbers of the paging grid in {@link GridPagerTestActivity}: the time from the
+ * launch to the first page, the frame times while swiping through the pages, and the memory
+ * after every page is visited. The results are reported as instrumentation status, so they
+ * show up in the output of am instrument, and in the log.
+ *
+ * The item count and the column mode come from the instrumentation arguments, for example
+ * -e itemCount 5000 -e column 3. The column 0 is the irregular mode.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GridPagerScrollBenchmark {
+    private static final String TAG = "GridPagerBenchmark";
+    private static final int DEFAULT_ITEM_COUNT = 1000;
+    private static final int SWIPED_PAGES = 50;
+    private static final long TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+    private static final long POLL_INTERVAL_MS = 16;
+    private static final int MAX_FRAMES = 10000;
+    // A frame longer than this many refresh intervals is a jank
+    private static final float JANK_FACTOR = 1.5f;
+    // The swipe starts and ends this far from the edges, as a fraction of the width
+    private static final float SWIPE_INSET = 0.1f;
+
+    @Rule
+    public final ActivityTestRule<GridPagerTestActivity> mActivityRule =
+            new ActivityTestRule<>(GridPagerTestActivity.class, false, false);
+
+    private final Instrumentation mInstrumentation =
+            InstrumentationRegistry.getInstrumentation();
+    private RecyclerView mRecyclerView;
+    private GridPagerLayoutManager mLayoutManager;
+
+    /**
+     * It records the time between the frames while it runs.
+     */
+    private static class FrameRecorder implements Choreographer.FrameCallback {
+        private final long[] mFrameNanos = new long[MAX_FRAMES];
+        private int mFrameCount;
+        private long mLastFrameNanos;
+        private boolean mRunning;
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) {
+                return;
+            }
+            if (mLastFrameNanos != 0 && mFrameCount < MAX_FRAMES) {
+                mFrameNanos[mFrameCount++] = frameTimeNanos - mLastFrameNanos;
+            }
+            mLastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        private void start() {
+            mRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        private void stop() {
+            mRunning = false;
+        }
+    }
+
+    @Test
+    public void launchToFirstPage() {
+        final long start = SystemClock.elapsedRealtime();
+        launch();
+        final Bundle results = new Bundle();
+        results.putLong("launchToFirstPageMs", SystemClock.elapsedRealtime() - start);
+        report(results);
+    }
+
+    @Test
+    public void swipeFrameTimes() {
+        launch();
+        final FrameRecorder recorder = new FrameRecorder();
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recorder.start();
+            }
+        });
+        final int pages = Math.min(SWIPED_PAGES, mLayoutManager.getPageCount() - 1);
+        swipe(pages);
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recorder.stop();
+            }
+        });
+        final long[] frames = Arrays.copyOf(recorder.mFrameNanos, recorder.mFrameCount);
+        Arrays.sort(frames);
+        final float refreshRate = mActivityRule.getActivity().getWindowManager()
+                .getDefaultDisplay().getRefreshRate();
+        final long jankNanos = (long) (TimeUnit.SECONDS.toNanos(1) / refreshRate * JANK_FACTOR);
+        int jankFrames = 0;
+        for (long frame : frames) {
+            if (frame > jankNanos) {
+                jankFrames++;
+            }
+        }
+        final Bundle results = new Bundle();
+        results.putInt("swipedPages", pages);
+        results.putInt("frames", frames.length);
+        results.putFloat("jankPercent", frames.length == 0 ? 0 : 100f * jankFrames / frames.length);
+        results.putFloat("frameP50Ms", percentileMs(frames, 50));
+        results.putFloat("frameP90Ms", percentileMs(frames, 90));
+        results.putFloat("frameP95Ms", percentileMs(frames, 95));
+        results.putFloat("frameP99Ms", percentileMs(frames, 99));
+        report(results);
+    }
+
+    @Test
+    public void memoryAfterVisitingAllPages() {
+        launch();
+        swipe(mLayoutManager.getPageCount() - 1);
+        final Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        runtime.runFinalization();
+        runtime.gc();
+        final Bundle results = new Bundle();
+        results.putInt("pages", mLayoutManager.getPageCount());
+        results.putLong("javaHeapKb", (runtime.totalMemory() - runtime.freeMemory()) / 1024);
+        results.putLong("nativeHeapKb", Debug.getNativeHeapAllocatedSize() / 1024);
+        results.putInt("attachedViews", mRecyclerView.getChildCount());
+        report(results);
+    }
+
+    /**
+     * Launches the activity and waits until the first page is laid out, which may wait for
+     * the page plan in the irregular mode.
+     */
+    private void launch() {
+        final Bundle arguments = InstrumentationRegistry.getArguments();
+        final Intent intent = new Intent();
+        intent.putExtra("item_count",
+                Integer.parseInt(arguments.getString("itemCount", "" + DEFAULT_ITEM_COUNT)));
+        intent.putExtra("column", Integer.parseInt(arguments.getString("column", "0")));
+        mActivityRule.launchActivity(intent);
+        mRecyclerView = mActivityRule.getActivity().findViewById(R.id.recycler_view);
+        mLayoutManager = (GridPagerLayoutManager) mRecyclerView.getLayoutManager();
+        final long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MS;
+        while (mRecyclerView.getChildCount() == 0 || mLayoutManager.getPageCount() == 0) {
+            assertTrue("The first page is not laid out",
+                    SystemClock.elapsedRealtime() < deadline);
+            mInstrumentation.waitForIdleSync();
+            SystemClock.sleep(POLL_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Swipes the given number of pages forward, waiting for every page to settle, the same
+     * way a user does with {@link com.ljr.com.multi.paging.HorizontalPagerScrollHelper}.
+     * The swipes are slow, since a fast one is a fling which may cross several pages, and
+     * every swipe has to move exactly one page.
+     */
+    private void swipe(int pages) {
+        final boolean rtl = UIUtils.isLayoutRtl(mActivityRule.getActivity());
+        final CoordinatesProvider right = atFraction(1 - SWIPE_INSET);
+        final CoordinatesProvider left = atFraction(SWIPE_INSET);
+        final GeneralSwipeAction swipe = new GeneralSwipeAction(Swipe.SLOW,
+                rtl ? left : right, rtl ? right : left, Press.FINGER);
+        for (int i = 0; i < pages; i++) {
+            final int page = getCurrentPage();
+            onView(withId(R.id.recycler_view)).perform(swipe);
+            final long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MS;
+            while (mRecyclerView.getScrollState() != RecyclerView.SCROLL_STATE_IDLE) {
+                assertTrue("The page is not settled", SystemClock.elapsedRealtime() < deadline);
+                mInstrumentation.waitForIdleSync();
+                SystemClock.sleep(POLL_INTERVAL_MS);
+            }
+            assertEquals("The swipe did not move one page", page + 1, getCurrentPage());
+        }
+    }
+
+    /**
+     * Returns the point at the given fraction of the width of the view, at its middle height.
+     */
+    private static CoordinatesProvider atFraction(final float fraction) {
+        return new CoordinatesProvider() {
+            @Override
+            public float[] calculateCoordinates(View view) {
+                final int[] location = new int[2];
+                view.getLocationOnScreen(location);
+                return new float[] {location[0] + view.getWidth() * fraction,
+                        location[1] + view.getHeight() / 2f};
+            }
+        };
+    }
+
+    private int getCurrentPage() {
+        final int[] page = new int[1];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                page[0] = mLayoutManager.getCurrentPage();
+            }
+        });
+        return page[0];
+    }
+
+    private static float percentileMs(long[] sortedFrames, int percentile) {
+        if (sortedFrames.length == 0) {
+            return 0;
+        }
+        final int index = Math.min(sortedFrames.length - 1,
+                (int) Math.ceil(sortedFrames.length * percentile / 100f) - 1);
+        return sortedFrames[Math.max(0, index)] / (float) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private void report(Bundle results) {
+        final StringBuilder builder = new StringBuilder();
+        for (String key : results.keySet()) {
+            builder.append(key).append('=').append(results.get(key)).append(' ');
+        }
+        Log.i(TAG, builder.toString());
+        mInstrumentation.sendStatus(0, results);
+    }
+}
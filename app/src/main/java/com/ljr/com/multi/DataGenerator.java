@@ -12,11 +12,15 @@ public class DataGenerator {
     private final static int MAX_VALUE = 123;
 
     public static List<String> getStringsData(int size) {
+        return getStringsData(0, size);
+    }
+
+    public static List<String> getStringsData(int start, int size) {
         List<String> list = new ArrayList<>();
         Random random = new Random();
         for (int i = 0; i < size; i++) {
             int stringSize = Math.max(10, random.nextInt(20));
-            list.add(generateString(i, stringSize));
+            list.add(generateString(start + i, stringSize));
         }
         return list;
     }
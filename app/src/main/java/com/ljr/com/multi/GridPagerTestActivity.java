@@ -2,6 +2,8 @@ package com.ljr.com.multi;
 
 import android.app.Activity;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
@@ -11,21 +13,54 @@ import android.widget.TextView;
 
 import com.ljr.com.multi.paging.GridPagerLayoutManager;
 import com.ljr.com.multi.paging.HorizontalPagerScrollHelper;
+import com.ljr.com.multi.paging.ItemViewPreInflater;
+import com.ljr.com.multi.paging.PagerRecycledViewPool;
+import com.ljr.com.multi.paging.TextItemWidthProvider;
 import com.ljr.com.multi.paging.UIUtils;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class GridPagerTestActivity extends Activity {
+    private static final int DEFAULT_ITEM_COUNT = 80;
+    private static final int ROW_COUNT = 4;
+    // The data is loaded in chunks of this many items, like the pages of a paged list
+    private static final int LOAD_CHUNK_SIZE = 100;
+    // How many pages are loaded on each side of the attached pages
+    private static final int LOAD_AROUND_PAGES = 2;
+    // The text of an average item, to estimate the width of the items not loaded yet
+    private static final String PLACEHOLDER_TEXT = "000 : abcdefghijklmno";
+
+    private final ExecutorService mPagePlanExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService mLoadExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService mInflateExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private ItemViewPreInflater mItemViewPreInflater;
+
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.grid_layout);
         RecyclerView recyclerView = findViewById(R.id.recycler_view);
-        GridPagerLayoutManager layoutManager = new GridPagerLayoutManager(getApplicationContext());
+        int column = getIntent().getIntExtra("column", 0);
+        final GridPagerLayoutManager layoutManager = new GridPagerLayoutManager(
+                getApplicationContext(), getIntent().getIntExtra("orientation",
+                        GridPagerLayoutManager.HORIZONTAL));
         layoutManager.setRecycleChildrenOnDetach(true);
+        // The page which has just been swiped away comes back without being bound again
+        layoutManager.setCacheOffscreenPage(true, 2);
+        layoutManager.setCircular(getIntent().getBooleanExtra("circular", false));
         recyclerView.setLayoutManager(layoutManager);
-        Adapter adapter = new Adapter();
+        // The layout params of an item come from the layout manager
+        TextView sample = (TextView) LayoutInflater.from(this)
+                .inflate(R.layout.grid_item, recyclerView, false);
+        // The views of the first page are inflated while the data and the page plan load
+        mItemViewPreInflater =
+                new ItemViewPreInflater(recyclerView, R.layout.grid_item, mInflateExecutor);
+        mItemViewPreInflater.preInflate(estimateFirstPageItemCount(sample, column));
+        recyclerView.setRecycledViewPool(new PagerRecycledViewPool());
+        Adapter adapter = new Adapter(getIntent().getIntExtra("item_count", DEFAULT_ITEM_COUNT));
         final HorizontalPagerScrollHelper scrollHelper =
                 HorizontalPagerScrollHelper.createGridPagerScrollHelper(recyclerView);
         layoutManager.setOnCompleteLayout(new GridPagerLayoutManager.OnCompleteLayout() {
@@ -33,18 +68,75 @@ public class GridPagerTestActivity extends Activity {
             public void onCompleteLayout(boolean refresh, int pageSize) {
                 if (refresh) {
                     scrollHelper.reinitialization(pageSize);
+                } else {
+                    scrollHelper.updatePageCount(pageSize, layoutManager.getCurrentPage());
                 }
             }
         });
         int padding = (int) UIUtils.dpToPixels(6, getApplicationContext());
         layoutManager.setPaddingLeft(padding);
         layoutManager.setPaddingRight(padding);
-        layoutManager.setRow(4);
-        int column = getIntent().getIntExtra("column", 0);
+        layoutManager.setRow(ROW_COUNT);
         layoutManager.setColumn(column);
+        if (column == 0) {
+            layoutManager.setItemWidthProvider(createItemWidthProvider(sample, adapter),
+                    mPagePlanExecutor);
+        }
+        layoutManager.setOnLoadAround(adapter, LOAD_AROUND_PAGES);
         recyclerView.setAdapter(adapter);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mPagePlanExecutor.shutdownNow();
+        mLoadExecutor.shutdownNow();
+        mInflateExecutor.shutdownNow();
+        mItemViewPreInflater.cancel();
+        mMainHandler.removeCallbacksAndMessages(null);
+    }
+
+    /**
+     * The first page is made of placeholders, so in the irregular mode its item count is
+     * about the screen width divided by the placeholder width.
+     */
+    private int estimateFirstPageItemCount(TextView sample, int column) {
+        if (column > 0) {
+            return ROW_COUNT * column;
+        }
+        int screenWidth = getResources().getDisplayMetrics().widthPixels;
+        return ROW_COUNT * Math.max(1, screenWidth / getPlaceholderWidth(sample));
+    }
+
+    private static int getExtraWidth(TextView sample) {
+        ViewGroup.MarginLayoutParams params =
+                (ViewGroup.MarginLayoutParams) sample.getLayoutParams();
+        return sample.getCompoundPaddingLeft() + sample.getCompoundPaddingRight()
+                + params.leftMargin + params.rightMargin;
+    }
+
+    private static int getPlaceholderWidth(TextView sample) {
+        return (int) Math.ceil(sample.getPaint().measureText(PLACEHOLDER_TEXT))
+                + getExtraWidth(sample);
+    }
+
+    /**
+     * The items are single line text views, so their widths can be computed from the text
+     * with the paint, the paddings and the margins of a sample item. The items which are not
+     * loaded yet get the width of an average text.
+     */
+    private TextItemWidthProvider createItemWidthProvider(TextView sample,
+            final Adapter adapter) {
+        return new TextItemWidthProvider(sample.getPaint(), getExtraWidth(sample),
+                getPlaceholderWidth(sample),
+                new TextItemWidthProvider.TextSource() {
+                    @Override
+                    public CharSequence getText(int position) {
+                        return adapter.mData[position];
+                    }
+                });
+    }
+
     private class ViewHolder extends RecyclerView.ViewHolder {
         private TextView mTextView;
 
@@ -58,29 +150,79 @@ public class GridPagerTestActivity extends Activity {
         }
     }
 
-    private class Adapter extends RecyclerView.Adapter<ViewHolder> {
+    /**
+     * It loads its data in chunks around the pages the layout manager reports, the way a
+     * paged list does, and shows empty placeholders until a chunk is loaded. A loaded chunk
+     * is notified as changed, so only the pages from there are flowed again.
+     */
+    private class Adapter extends RecyclerView.Adapter<ViewHolder>
+            implements GridPagerLayoutManager.OnLoadAround {
+
+        // A null item is not loaded yet. It is read by the width provider in background,
+        // which sees either the placeholder or the loaded text.
+        private final String[] mData;
+        private final boolean[] mRequestedChunks;
+
+        Adapter(int itemCount) {
+            mData = new String[itemCount];
+            mRequestedChunks = new boolean[(itemCount + LOAD_CHUNK_SIZE - 1) / LOAD_CHUNK_SIZE];
+            setHasStableIds(true);
+        }
 
-        private List<String> mData = new ArrayList<>();
+        @Override
+        public long getItemId(int position) {
+            // The items are never moved, so the position is a stable id
+            return position;
+        }
 
-        Adapter() {
-            mData.addAll(DataGenerator.getStringsData(80));
+        @Override
+        public void onLoadAround(int firstPosition, int lastPosition) {
+            for (int chunk = firstPosition / LOAD_CHUNK_SIZE;
+                    chunk <= lastPosition / LOAD_CHUNK_SIZE; chunk++) {
+                if (!mRequestedChunks[chunk]) {
+                    mRequestedChunks[chunk] = true;
+                    loadChunk(chunk);
+                }
+            }
+        }
+
+        private void loadChunk(int chunk) {
+            final int start = chunk * LOAD_CHUNK_SIZE;
+            final int count = Math.min(LOAD_CHUNK_SIZE, mData.length - start);
+            mLoadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final List<String> data = DataGenerator.getStringsData(start, count);
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onChunkLoaded(start, data);
+                        }
+                    });
+                }
+            });
+        }
+
+        private void onChunkLoaded(int start, List<String> data) {
+            for (int i = 0; i < data.size(); i++) {
+                mData[start + i] = data.get(i);
+            }
+            notifyItemRangeChanged(start, data.size());
         }
 
         @Override
         public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-            View textView = LayoutInflater.from(parent.getContext())
-                    .inflate(R.layout.grid_item, parent, false);
-            return new ViewHolder(textView);
+            return new ViewHolder(mItemViewPreInflater.take());
         }
 
         @Override
         public void onBindViewHolder(ViewHolder holder, int position) {
-            holder.bind(mData.get(position));
+            holder.bind(mData[position]);
         }
 
         @Override
         public int getItemCount() {
-            return mData.size();
+            return mData.length;
         }
     }
 }
@@ -7,6 +7,12 @@
 package com.ljr.com.multi.paging;
 
 import android.content.Context;
+import android.graphics.PointF;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.v4.os.TraceCompat;
 import android.support.v7.widget.OrientationHelper;
 import android.support.v7.widget.RecyclerView;
 import android.view.View;
@@ -14,298 +20,1444 @@ import android.view.ViewGroup;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * It implements grouping and paging of layout manager
+ * <p>
+ * Everything but the page plan is confined to the main thread, where the layout and the
+ * scroll run, so nothing is locked. The page plan is built on the executor given with the
+ * {@link ItemWidthProvider}, and it is handed to the main thread by a volatile field.
  */
-public class GridPagerLayoutManager extends RecyclerView.LayoutManager {
+public class GridPagerLayoutManager extends RecyclerView.LayoutManager
+        implements RecyclerView.SmoothScroller.ScrollVectorProvider {
+    private static final int DEFAULT_OFFSCREEN_PAGES = 1;
+    // It keeps the saved state far below the size limit of a binder transaction
+    private static final int MAX_SAVED_ITEM_WIDTHS = 4096;
+    private static final int NO_SLOT = Integer.MIN_VALUE;
+    // The view cache size of a RecyclerView, to which a cached page of views is added
+    private static final int DEFAULT_VIEW_CACHE_SIZE = 2;
+
+    public static final int HORIZONTAL = OrientationHelper.HORIZONTAL;
+    public static final int VERTICAL = OrientationHelper.VERTICAL;
+
+    private static final String TRACE_MEASURE = "GridPager OnMeasure";
+    private static final String TRACE_LAYOUT = "GridPager OnLayout";
+    private static final String TRACE_SCROLL = "GridPager OnScroll";
+    private static final String TRACE_PAGE_INDEX = "GridPager PageIndex";
+    private static final String TRACE_FILL = "GridPager Fill";
 
     public interface OnCompleteLayout {
         void onCompleteLayout(boolean refresh, int pageSize);
     }
 
-    private class CurrentPageInfo {
-        private int mCurrentPageLeft;
-        private int mCurrentRowTotalWidth;
-        private int mCurrentPageTop;
-        private int mRow;
-        private int mCurrentPage;
-        private int mHorizontalOffset;
-        private int mStartPos;
-        private int mLastPos;
+    /**
+     * It is told which positions are in and around the attached pages, so a paged data source
+     * can load them before they are shown, and show placeholders for the rest. It is called
+     * after the layout or the scroll which moved the attached pages, so the adapter can be
+     * notified from it.
+     */
+    public interface OnLoadAround {
+        void onLoadAround(int firstPosition, int lastPosition);
+    }
 
-        private void reset() {
-            mCurrentPageLeft = isRevertLayout() ? getWidth() - getPaddingRight() : getPaddingLeft();
-            mRow = 0;
-            mCurrentPageTop = 0;
-            mHorizontalOffset = 0;
-            mCurrentPage = 1;
-            mStartPos = -1;
-            mLastPos = -1;
-            mCurrentRowTotalWidth = 0;
+    /**
+     * It receives the cost of every measure, layout and scroll pass, when it is set by
+     * {@link #setOnLayoutMetrics}.
+     */
+    public interface OnLayoutMetrics {
+        void onLayoutMetrics(LayoutMetrics metrics);
+    }
+
+    /**
+     * The state saved across process death and activity recreation. It holds the current
+     * page and its first item, and the widths the pages were built from, so the same pages
+     * can be restored without measuring when the RecyclerView has the same size and the
+     * adapter has the same items.
+     */
+    public static class SavedState implements Parcelable {
+        private int mAnchorPage;
+        private int mAnchorPosition;
+        private long mAnchorItemId;
+        private int mWidth;
+        private int mHeight;
+        private int mPaddingLeft;
+        private int mPaddingRight;
+        private int mColumnWidth;
+        private int mRevertLayout;
+        private int mOrientation;
+        private int mCircular;
+        private int mItemHeight;
+        // The sizes of all positions, or null if the pages were not complete or too big
+        private int[] mItemWidths;
+        private int[] mItemHeights;
+        // The stable ids of all positions when the sizes are saved, or null without stable ids
+        private long[] mItemIds;
+
+        public SavedState() {
+        }
+
+        SavedState(Parcel in) {
+            mAnchorPage = in.readInt();
+            mAnchorPosition = in.readInt();
+            mAnchorItemId = in.readLong();
+            mWidth = in.readInt();
+            mHeight = in.readInt();
+            mPaddingLeft = in.readInt();
+            mPaddingRight = in.readInt();
+            mColumnWidth = in.readInt();
+            mRevertLayout = in.readInt();
+            mOrientation = in.readInt();
+            mCircular = in.readInt();
+            mItemHeight = in.readInt();
+            mItemWidths = in.createIntArray();
+            mItemHeights = in.createIntArray();
+            mItemIds = in.createLongArray();
         }
+
+        public SavedState(SavedState other) {
+            mAnchorPage = other.mAnchorPage;
+            mAnchorPosition = other.mAnchorPosition;
+            mAnchorItemId = other.mAnchorItemId;
+            mWidth = other.mWidth;
+            mHeight = other.mHeight;
+            mPaddingLeft = other.mPaddingLeft;
+            mPaddingRight = other.mPaddingRight;
+            mColumnWidth = other.mColumnWidth;
+            mRevertLayout = other.mRevertLayout;
+            mOrientation = other.mOrientation;
+            mCircular = other.mCircular;
+            mItemHeight = other.mItemHeight;
+            mItemWidths = other.mItemWidths;
+            mItemHeights = other.mItemHeights;
+            mItemIds = other.mItemIds;
+        }
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            dest.writeInt(mAnchorPage);
+            dest.writeInt(mAnchorPosition);
+            dest.writeLong(mAnchorItemId);
+            dest.writeInt(mWidth);
+            dest.writeInt(mHeight);
+            dest.writeInt(mPaddingLeft);
+            dest.writeInt(mPaddingRight);
+            dest.writeInt(mColumnWidth);
+            dest.writeInt(mRevertLayout);
+            dest.writeInt(mOrientation);
+            dest.writeInt(mCircular);
+            dest.writeInt(mItemHeight);
+            dest.writeIntArray(mItemWidths);
+            dest.writeIntArray(mItemHeights);
+            dest.writeLongArray(mItemIds);
+        }
+
+        public static final Creator<SavedState> CREATOR = new Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
     }
 
     private class LayoutState {
-        private int mTotalRow;
+        // The height of every row when the rows are not as tall as their items
         private int mItemHeight;
         private int mTotalPageSize;
-        private int mVerticalPadding;
 
         void reset() {
             mTotalPageSize = 1;
-            mVerticalPadding = 0;
             mItemHeight = 0;
-            mTotalRow = 0;
         }
     }
 
+    /**
+     * The configuration the pages are laid out with. It is taken at the start of every
+     * layout and measure pass, so the loops over the items only read fields. The direction
+     * comes from the resources, so it is only read again once the configuration is changed.
+     */
+    private static final class LayoutConfig {
+        // The direction of the resources, kept until the configuration is changed
+        private boolean mDirectionKnown;
+        private boolean mRtl;
+        private boolean mRevertLayout;
+        // The pages are put from the end in the reverse layout, but only side by side
+        private boolean mReversePages;
+        private int mOrientation;
+        // The size of a page along the orientation
+        private int mPageExtent;
+        private int mWidth;
+        private int mPaddingLeft;
+        private int mPaddingRight;
+        private int mRealWidth;
+    }
+
+    /**
+     * A page flow computed in background for one generation of the data. It is not changed
+     * after it is published, and the main thread only uses it if its generation is still
+     * the current one.
+     */
+    private static final class PagePlan {
+        private final PageIndex mPageIndex;
+        private final int mGeneration;
+
+        private PagePlan(PageIndex pageIndex, int generation) {
+            mPageIndex = pageIndex;
+            mGeneration = generation;
+        }
+    }
+
+    /**
+     * It keeps the page shown by the viewport, so a relayout can bring it back at the same
+     * place even if the pages before it are changed.
+     */
     private class AnchorInfo {
         private int mWidth;
+        private int mOrientation;
+        private int mPageExtent;
         private int mTargetPage;
+        // The scrolled size inside the slot of the target page
+        private int mTargetOffset;
 
         private boolean isConfigurationChanged() {
-            return mWidth != getWidth();
+            return mWidth != getWidth() || mOrientation != mLayoutConfig.mOrientation
+                    || mPageExtent != mLayoutConfig.mPageExtent;
         }
 
         private void reset() {
-            mWidth = 0;
+            mWidth = getWidth();
+            mOrientation = mLayoutConfig.mOrientation;
+            mPageExtent = mLayoutConfig.mPageExtent;
             mTargetPage = 0;
+            mTargetOffset = 0;
+        }
+
+        /**
+         * Records the page under the start edge of the viewport.
+         */
+        private void save() {
+            final int pageExtent = mLayoutConfig.mPageExtent;
+            if (mLayoutState.mTotalPageSize == 0 || pageExtent == 0) {
+                return;
+            }
+            final int slot = mScrollOffset / pageExtent;
+            mTargetPage = toPage(slot);
+            mTargetOffset = mScrollOffset - slot * pageExtent;
+        }
+
+        /**
+         * Returns the scrolled size which puts the target page at the same place in the
+         * viewport. The target page is the last page if it has been removed.
+         */
+        private int getTargetScrolledOffset() {
+            if (mLayoutState.mTotalPageSize == 0) {
+                // Nothing is laid out yet, the target is kept for the next layout
+                return 0;
+            }
+            if (mTargetPage >= mLayoutState.mTotalPageSize) {
+                mTargetPage = Math.max(0, mLayoutState.mTotalPageSize - 1);
+                mTargetOffset = 0;
+            }
+            final int offset = toPageSlot(mTargetPage) * mLayoutConfig.mPageExtent
+                    + mTargetOffset;
+            // The last page may be partly scrolled past in the circular mode
+            return isPageWrapping() ? offset : Math.min(mTotalSpace, offset);
+        }
+    }
+
+    // The scrolled size along the orientation
+    private int mScrollOffset;
+    private int mTotalSpace;
+    private boolean mRecycleChildrenOnDetach;
+    private final OrientationHelper mOrientationHelper;
+    private final LayoutState mLayoutState;
+    private OnCompleteLayout mOnCompleteLayout;
+    private OnLayoutMetrics mOnLayoutMetrics;
+    // It is only created while a metrics listener is set, so the passes skip the counting
+    private LayoutMetrics mLayoutMetrics;
+    private final AnchorInfo mAnchorInfo;
+    private int mPaddingLeft;
+    private int mPaddingRight;
+    private int mRowHeight;
+    private int mColumnWidth;
+    private int mColumn;
+    private int mRow = 1;
+    private int mOffscreenPageLimit = DEFAULT_OFFSCREEN_PAGES;
+    private int mFirstAttachedPosition = RecyclerView.NO_POSITION;
+    private int mLastAttachedPosition = RecyclerView.NO_POSITION;
+    private boolean mCircular;
+    // The virtual slots of the window in the circular mode. A virtual slot holds the page of
+    // its slot modulo the page count, and the window never holds a page twice.
+    private int mWindowFirstSlot;
+    private int mWindowLastSlot = -1;
+    private boolean mCacheOffscreenPage;
+    private int mItemViewCacheSize = DEFAULT_VIEW_CACHE_SIZE;
+    // The view cache size last set on the recycler, or 0 if none has been set
+    private int mViewCacheSize;
+    private PageIndex mPageIndex = new PageIndex();
+    private final ItemSizeCache mSizeCache = new ItemSizeCache();
+    private RecyclerView mRecyclerView;
+    private int mIndexUpdatePosition = 0;
+    // The first position from which the widths are the same as in the page index
+    private int mIndexUnchangedFrom = Integer.MAX_VALUE;
+    private boolean mResetScrollPosition = true;
+    private int mIndexWidth;
+    private int mIndexHeight;
+    private int mIndexPaddingLeft;
+    private int mIndexPaddingRight;
+    private int mIndexColumnWidth;
+    private boolean mIndexRevertLayout;
+    private ItemWidthProvider mItemWidthProvider;
+    private Executor mPagePlanExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Published by the page plan executor, and taken by the main thread
+    private volatile PagePlan mPagePlan;
+    private int mPagePlanGeneration;
+    private boolean mPagePlanRequested;
+    // The old pages and their views are kept while the page plan of the new flow is computed
+    private boolean mWaitingForPagePlan;
+    private SavedState mPendingSavedState;
+    private OnLoadAround mOnLoadAround;
+    private int mLoadAroundPageLimit;
+    private int mLoadAroundFirstPosition = RecyclerView.NO_POSITION;
+    private int mLoadAroundLastPosition = RecyclerView.NO_POSITION;
+    private boolean mLoadAroundPosted;
+    private final Runnable mLoadAroundRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mLoadAroundPosted = false;
+            if (mOnLoadAround != null) {
+                mOnLoadAround.onLoadAround(mLoadAroundFirstPosition, mLoadAroundLastPosition);
+            }
+        }
+    };
+    private int mPendingScrollPosition = RecyclerView.NO_POSITION;
+    private boolean mCrossingPages;
+    private Context mContext;
+    private final LayoutConfig mLayoutConfig = new LayoutConfig();
+    private int mOrientation;
+
+    public GridPagerLayoutManager(Context context) {
+        this(context, HORIZONTAL);
+    }
+
+    /**
+     * @param orientation {@link #HORIZONTAL} to put the pages side by side, or
+     * {@link #VERTICAL} to stack them. The items flow in rows inside a page either way.
+     */
+    public GridPagerLayoutManager(Context context, int orientation) {
+        setOrientation(orientation);
+        // The items are measured along the rows whatever way the pages are scrolled
+        mOrientationHelper =
+                OrientationHelper.createOrientationHelper(this, OrientationHelper.HORIZONTAL);
+        mLayoutState = new LayoutState();
+        mAnchorInfo = new AnchorInfo();
+        mContext = context;
+    }
+
+    @Override
+    public RecyclerView.LayoutParams generateDefaultLayoutParams() {
+        return new RecyclerView.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT);
+    }
+
+    @Override
+    public void onLayoutChildren(RecyclerView.Recycler recycler, RecyclerView.State state) {
+        TraceCompat.beginSection(TRACE_LAYOUT);
+        beginPass(state.isPreLayout() ? LayoutMetrics.PASS_PRE_LAYOUT : LayoutMetrics.PASS_LAYOUT);
+        try {
+            updateLayoutConfig();
+            layoutChildren(recycler, state);
+        } finally {
+            endPass();
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Lays out the pages around the target page. When the adapter is changed, only the
+     * pages from the first changed position are recomputed, and the attached views before
+     * it are left in place. The current page is kept, unless the adapter, the width, the
+     * page size or the orientation is changed, which brings back the first page.
+     */
+    private void layoutChildren(RecyclerView.Recycler recycler, RecyclerView.State state) {
+        if (getItemCount() == 0) {
+            mWaitingForPagePlan = false;
+            removeAndRecycleAllViews(recycler);
+            return;
+        }
+        if (state.isPreLayout()) {
+            preLayoutChildren(recycler, state);
+            return;
+        }
+        updateMeasureSpace();
+        final SavedState savedState = mPendingSavedState;
+        if (savedState != null) {
+            restorePageIndex(savedState);
+        }
+        final boolean jump = savedState != null
+                || mPendingScrollPosition != RecyclerView.NO_POSITION;
+        final boolean refresh = !jump
+                && (mResetScrollPosition || mAnchorInfo.isConfigurationChanged());
+        if (refresh) {
+            mAnchorInfo.reset();
+            mResetScrollPosition = false;
+        } else if (!jump) {
+            mAnchorInfo.save();
+        }
+        final int oldScrollOffset = mScrollOffset;
+        final int oldPageSize = mLayoutState.mTotalPageSize;
+        final int start = truncatePageIndex();
+        final PagePlan pagePlan = start == 0 && isPagePlanEnabled() ? findPagePlan() : null;
+        mWaitingForPagePlan = start == 0 && isPagePlanEnabled() && pagePlan == null;
+        if (mWaitingForPagePlan) {
+            waitForPagePlan(recycler);
+            return;
+        }
+        // The virtual slots of the circular mode depend on the page count, so no view is left
+        // in place in it, or when it is just turned off
+        if (start == RecyclerView.NO_POSITION || start == 0 || mCircular
+                || mWindowFirstSlot <= mWindowLastSlot) {
+            detachAndScrapAttachedViews(recycler);
+            resetWindow();
+        } else {
+            scrapViewsFrom(recycler, start);
+        }
+        final int pagesComputed;
+        TraceCompat.beginSection(TRACE_PAGE_INDEX);
+        try {
+            pagesComputed = updatePageIndex(recycler, start, pagePlan);
+        } finally {
+            TraceCompat.endSection();
+        }
+        mLayoutState.mTotalPageSize = mPageIndex.getPageCount();
+        if (mLayoutMetrics != null) {
+            mLayoutMetrics.mPagesComputed += pagesComputed;
+        }
+        if (savedState != null && mLayoutState.mTotalPageSize > 0) {
+            mAnchorInfo.reset();
+            mAnchorInfo.mTargetPage = findSavedAnchorPage(savedState);
+            mResetScrollPosition = false;
+            mPendingSavedState = null;
+        }
+        if (mPendingScrollPosition != RecyclerView.NO_POSITION
+                && mLayoutState.mTotalPageSize > 0) {
+            if (mPendingScrollPosition < mPageIndex.getItemCount()) {
+                mAnchorInfo.reset();
+                mAnchorInfo.mTargetPage = mPageIndex.getPage(mPendingScrollPosition);
+                mResetScrollPosition = false;
+            }
+            mPendingScrollPosition = RecyclerView.NO_POSITION;
+        }
+        mTotalSpace = Math.max(0, (mLayoutState.mTotalPageSize - 1) * mLayoutConfig.mPageExtent);
+        mScrollOffset = mAnchorInfo.getTargetScrolledOffset();
+        if (getChildCount() > 0) {
+            offsetKeptViews(oldScrollOffset, oldPageSize);
+        }
+        fill(recycler, state);
+        if (state.willRunPredictiveAnimations()) {
+            layoutDisappearingViews(recycler);
+        }
+        final int pageCapacity = getAttachedPageCapacity();
+        updateViewCacheSize(recycler, pageCapacity);
+        requestPoolCapacity(pageCapacity);
+        if (mOnCompleteLayout != null && mLayoutState.mTotalPageSize > 0) {
+            mOnCompleteLayout.onCompleteLayout(refresh, mLayoutState.mTotalPageSize);
+        }
+    }
+
+    @Override
+    public Parcelable onSaveInstanceState() {
+        if (mPendingSavedState != null) {
+            return new SavedState(mPendingSavedState);
+        }
+        final SavedState state = new SavedState();
+        if (mLayoutState.mTotalPageSize == 0 || getWidth() == 0) {
+            state.mAnchorPosition = RecyclerView.NO_POSITION;
+            state.mAnchorItemId = RecyclerView.NO_ID;
+            return state;
+        }
+        state.mAnchorPage = getCurrentPage();
+        state.mAnchorPosition = mPageIndex.getFirstPosition(state.mAnchorPage);
+        state.mAnchorItemId = getStableId(state.mAnchorPosition);
+        state.mWidth = getWidth();
+        state.mHeight = getHeight();
+        state.mPaddingLeft = getPaddingLeft();
+        state.mPaddingRight = getPaddingRight();
+        state.mColumnWidth = mColumnWidth;
+        state.mRevertLayout = isRevertLayout() ? 1 : 0;
+        state.mOrientation = mOrientation;
+        state.mCircular = mCircular ? 1 : 0;
+        state.mItemHeight = mLayoutState.mItemHeight;
+        if (mIndexUpdatePosition == RecyclerView.NO_POSITION
+                && mPageIndex.getItemCount() == getItemCount()
+                && mPageIndex.getItemCount() <= MAX_SAVED_ITEM_WIDTHS) {
+            state.mItemWidths = mPageIndex.copyWidths();
+            state.mItemHeights = mPageIndex.copyHeights();
+            state.mItemIds = copyStableIds();
+        }
+        return state;
+    }
+
+    @Override
+    public void onRestoreInstanceState(Parcelable state) {
+        if (state instanceof SavedState) {
+            mPendingSavedState = (SavedState) state;
+            requestLayout();
+        }
+    }
+
+    /**
+     * Builds the pages from the saved sizes if they were built in the same configuration,
+     * the orientation and the circular mode included, and the adapter has the same items,
+     * so nothing has to be measured. The items are compared by their stable ids, and the
+     * sizes are dropped by any adapter change after the state is restored.
+     */
+    private void restorePageIndex(SavedState savedState) {
+        if (savedState.mItemWidths == null || savedState.mItemHeights == null
+                || savedState.mItemHeight == 0
+                || savedState.mItemWidths.length != getItemCount()
+                || savedState.mItemHeights.length != getItemCount()
+                || savedState.mWidth != getWidth() || savedState.mHeight != getHeight()
+                || savedState.mPaddingLeft != getPaddingLeft()
+                || savedState.mPaddingRight != getPaddingRight()
+                || savedState.mColumnWidth != mColumnWidth
+                || (savedState.mRevertLayout == 1) != isRevertLayout()
+                || savedState.mOrientation != mOrientation
+                || (savedState.mCircular == 1) != mCircular
+                || !matchesStableIds(savedState.mItemIds)) {
+            return;
+        }
+        mIndexWidth = getWidth();
+        mIndexHeight = getHeight();
+        mIndexPaddingLeft = getPaddingLeft();
+        mIndexPaddingRight = getPaddingRight();
+        mIndexColumnWidth = mColumnWidth;
+        mIndexRevertLayout = isRevertLayout();
+        mLayoutState.mItemHeight = savedState.mItemHeight;
+        mPageIndex.reset(getRealWidth(), getHeight());
+        for (int i = 0; i < savedState.mItemWidths.length; i++) {
+            mPageIndex.append(savedState.mItemWidths[i], savedState.mItemHeights[i]);
+        }
+        mIndexUpdatePosition = RecyclerView.NO_POSITION;
+        mPagePlanGeneration++;
+        mPagePlanRequested = false;
+        mPagePlan = null;
+        discardSavedSizes();
+    }
+
+    /**
+     * The sizes are only needed once, and they are out of date as soon as the adapter is
+     * changed.
+     */
+    private void discardSavedSizes() {
+        if (mPendingSavedState != null) {
+            mPendingSavedState.mItemWidths = null;
+            mPendingSavedState.mItemHeights = null;
+            mPendingSavedState.mItemIds = null;
+        }
+    }
+
+    private long[] copyStableIds() {
+        final RecyclerView.Adapter adapter =
+                mRecyclerView != null ? mRecyclerView.getAdapter() : null;
+        if (adapter == null || !adapter.hasStableIds()) {
+            return null;
+        }
+        final long[] ids = new long[getItemCount()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = adapter.getItemId(i);
+        }
+        return ids;
+    }
+
+    /**
+     * Whether the adapter has the given stable ids at the same positions. Without saved ids
+     * the adapter must not have stable ids either.
+     */
+    private boolean matchesStableIds(long[] ids) {
+        final RecyclerView.Adapter adapter =
+                mRecyclerView != null ? mRecyclerView.getAdapter() : null;
+        final boolean hasStableIds = adapter != null && adapter.hasStableIds();
+        if (ids == null || !hasStableIds) {
+            return ids == null && !hasStableIds;
+        }
+        if (ids.length != getItemCount()) {
+            return false;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (adapter.getItemId(i) != ids[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the page of the saved anchor item. The item is looked up by its id if it is not
+     * at the saved position anymore, and the saved page is used if it is not found.
+     */
+    private int findSavedAnchorPage(SavedState savedState) {
+        int position = savedState.mAnchorPosition;
+        final RecyclerView.Adapter adapter =
+                mRecyclerView != null ? mRecyclerView.getAdapter() : null;
+        if (adapter != null && adapter.hasStableIds()
+                && savedState.mAnchorItemId != RecyclerView.NO_ID) {
+            if (position < 0 || position >= getItemCount()
+                    || adapter.getItemId(position) != savedState.mAnchorItemId) {
+                position = RecyclerView.NO_POSITION;
+                for (int i = 0; i < getItemCount(); i++) {
+                    if (adapter.getItemId(i) == savedState.mAnchorItemId) {
+                        position = i;
+                        break;
+                    }
+                }
+            }
+        }
+        if (position >= 0 && position < mPageIndex.getItemCount()) {
+            return mPageIndex.getPage(position);
+        }
+        return Math.max(0, Math.min(savedState.mAnchorPage, mLayoutState.mTotalPageSize - 1));
+    }
+
+    /**
+     * Jumps to the page of the given position. The page is found in the page index, so
+     * only the window around it is laid out.
+     */
+    @Override
+    public void scrollToPosition(int position) {
+        if (position < 0 || position >= getItemCount()) {
+            return;
+        }
+        mPendingScrollPosition = position;
+        requestLayout();
+    }
+
+    @Override
+    public void smoothScrollToPosition(RecyclerView recyclerView, RecyclerView.State state,
+            int position) {
+        final PagerSmoothScroller scroller =
+                new PagerSmoothScroller(recyclerView.getContext(), this);
+        scroller.setTargetPosition(position);
+        startSmoothScroll(scroller);
+    }
+
+    @Override
+    public PointF computeScrollVectorForPosition(int targetPosition) {
+        final int distance = getScrollDistanceToPosition(targetPosition);
+        if (distance == 0) {
+            return null;
+        }
+        final int direction = distance > 0 ? 1 : -1;
+        return mOrientation == HORIZONTAL ? new PointF(direction, 0) : new PointF(0, direction);
+    }
+
+    /**
+     * Returns how far the page of the given position is from the viewport, which is the
+     * distance to scroll so that page is shown.
+     */
+    int getScrollDistanceToPosition(int position) {
+        if (position < 0 || position >= mPageIndex.getItemCount()) {
+            return 0;
+        }
+        return getScrollDistanceToPage(mPageIndex.getPage(position));
+    }
+
+    /**
+     * In the circular mode the distance is the short way around, and it is positive when
+     * both ways are as long.
+     */
+    int getScrollDistanceToPage(int page) {
+        if (page < 0 || page >= mLayoutState.mTotalPageSize || getPageExtent() == 0) {
+            return 0;
+        }
+        final int distance = toPageSlot(page) * getPageExtent() - mScrollOffset;
+        if (!isPageWrapping()) {
+            return distance;
+        }
+        final int turn = mLayoutState.mTotalPageSize * getPageExtent();
+        final int forward = floorMod(distance, turn);
+        return forward > turn / 2 ? forward - turn : forward;
+    }
+
+    @Override
+    public boolean supportsPredictiveItemAnimations() {
+        return true;
+    }
+
+    /**
+     * Lays out the window for the pre-layout pass, so the item animator knows where the
+     * changed items come from. The page index still holds the old pages at this point, since
+     * it is only updated by the real layout. The views before the page of the first changed
+     * position are left in place, the same way as in the real layout, and only the pages
+     * from there are laid out again. When items are removed, the page after the window is
+     * laid out too, since its first items may move into the window.
+     */
+    private void preLayoutChildren(RecyclerView.Recycler recycler, RecyclerView.State state) {
+        if (mWaitingForPagePlan || mPageIndex.getItemCount() != state.getItemCount()) {
+            return;
+        }
+        boolean itemRemoved = false;
+        for (int i = 0; i < getChildCount(); i++) {
+            final RecyclerView.LayoutParams params =
+                    (RecyclerView.LayoutParams) getChildAt(i).getLayoutParams();
+            if (params.isItemRemoved()) {
+                itemRemoved = true;
+                break;
+            }
+        }
+        final int start = getPreLayoutStart();
+        if (start == 0 || mCircular || mWindowFirstSlot <= mWindowLastSlot) {
+            detachAndScrapAttachedViews(recycler);
+            resetWindow();
+        } else {
+            scrapViewsFrom(recycler, start);
+        }
+        fill(recycler, state);
+        if (!itemRemoved || mLastAttachedPosition == RecyclerView.NO_POSITION) {
+            return;
+        }
+        final int nextPage = mPageIndex.getPage(mLastAttachedPosition) + 1;
+        if (nextPage < mPageIndex.getPageCount()) {
+            final int last = mPageIndex.getLastPosition(nextPage);
+            for (int i = mPageIndex.getFirstPosition(nextPage); i <= last; i++) {
+                layoutChildItem(i, nextPage, recycler);
+            }
+            mLastAttachedPosition = last;
+        }
+    }
+
+    /**
+     * Returns the first position of the page holding the first changed position in the old
+     * pages, or the item count if nothing has been changed.
+     */
+    private int getPreLayoutStart() {
+        if (isIndexConfigurationChanged()) {
+            return 0;
+        }
+        final int itemCount = mPageIndex.getItemCount();
+        if (mIndexUpdatePosition == RecyclerView.NO_POSITION) {
+            return itemCount;
+        }
+        return mPageIndex.getFirstPosition(
+                mPageIndex.getPage(Math.min(mIndexUpdatePosition, itemCount - 1)));
+    }
+
+    /**
+     * Adds the scrapped views which are still in the adapter but are not in the new window,
+     * at the place of their new position, so the item animator can move them out of the
+     * viewport. Only the views left in the scrap are touched, which are at most the views
+     * of the old window.
+     */
+    private void layoutDisappearingViews(RecyclerView.Recycler recycler) {
+        final List<RecyclerView.ViewHolder> scrapList =
+                new ArrayList<>(recycler.getScrapList());
+        for (int i = 0; i < scrapList.size(); i++) {
+            final View itemView = scrapList.get(i).itemView;
+            final RecyclerView.LayoutParams params =
+                    (RecyclerView.LayoutParams) itemView.getLayoutParams();
+            final int pos = params.getViewLayoutPosition();
+            if (params.isItemRemoved() || pos < 0 || pos >= mPageIndex.getItemCount()) {
+                continue;
+            }
+            addDisappearingView(itemView);
+            layoutItemView(itemView, pos, mPageIndex.getPage(pos));
+        }
+    }
+
+    /**
+     * Returns the item count of the largest attached page, since any of them may be the next
+     * one scrolled into.
+     */
+    private int getAttachedPageCapacity() {
+        if (mFirstAttachedPosition == RecyclerView.NO_POSITION) {
+            return 0;
+        }
+        final int lastPage = mPageIndex.getPage(mLastAttachedPosition);
+        int capacity = 0;
+        for (int page = mPageIndex.getPage(mFirstAttachedPosition); page <= lastPage; page++) {
+            capacity = Math.max(capacity,
+                    mPageIndex.getLastPosition(page) - mPageIndex.getFirstPosition(page) + 1);
+        }
+        return capacity;
+    }
+
+    /**
+     * Adds a page of views to the view cache size requested by
+     * {@link #setCacheOffscreenPage}, when it is turned on.
+     */
+    private void updateViewCacheSize(RecyclerView.Recycler recycler, int pageCapacity) {
+        final int size = mItemViewCacheSize + pageCapacity;
+        if (mCacheOffscreenPage && pageCapacity > 0 && size != mViewCacheSize) {
+            mViewCacheSize = size;
+            recycler.setViewCacheSize(size);
+        }
+    }
+
+    /**
+     * Asks a shared {@link PagerRecycledViewPool} for a page of views of every view type on
+     * the attached pages.
+     */
+    private void requestPoolCapacity(int capacity) {
+        if (mRecyclerView == null || capacity == 0
+                || !(mRecyclerView.getRecycledViewPool() instanceof PagerRecycledViewPool)) {
+            return;
+        }
+        final PagerRecycledViewPool pool =
+                (PagerRecycledViewPool) mRecyclerView.getRecycledViewPool();
+        for (int i = getChildCount() - 1; i >= 0; i--) {
+            pool.requestPageCapacity(mRecyclerView, getItemViewType(getChildAt(i)), capacity);
+        }
+    }
+
+    /**
+     * Scraps the attached views from the given position, as well as the removed ones. The
+     * views before it keep their place, since their pages are not changed. In the reverse
+     * layout their slots move with the page count, but so does the scrolled size.
+     */
+    private void scrapViewsFrom(RecyclerView.Recycler recycler, int start) {
+        for (int i = getChildCount() - 1; i >= 0; i--) {
+            final View child = getChildAt(i);
+            final RecyclerView.LayoutParams params =
+                    (RecyclerView.LayoutParams) child.getLayoutParams();
+            if (params.isItemRemoved() || params.isViewInvalid() || getPosition(child) >= start) {
+                detachAndScrapView(child, recycler);
+            }
+        }
+        mLastAttachedPosition = Math.min(mLastAttachedPosition, start - 1);
+        if (mLastAttachedPosition < mFirstAttachedPosition) {
+            mFirstAttachedPosition = RecyclerView.NO_POSITION;
+            mLastAttachedPosition = RecyclerView.NO_POSITION;
+        }
+    }
+
+    /**
+     * Attaches the views of the pages inside the layout window, which is made of the pages
+     * intersecting the viewport plus {@link #mOffscreenPageLimit} pages on each side, and
+     * recycles the attached views that are out of it.
+     */
+    private void fill(RecyclerView.Recycler recycler, RecyclerView.State state) {
+        if (mPageIndex.getPageCount() == 0 || mLayoutConfig.mPageExtent == 0) {
+            return;
+        }
+        if (isPageWrapping()) {
+            fillAround(recycler);
+            return;
+        }
+        final int firstSlot = getFirstWindowSlot();
+        final int lastSlot = getLastWindowSlot();
+        final boolean reversePages = mLayoutConfig.mReversePages;
+        final int firstPage = toPage(reversePages ? lastSlot : firstSlot);
+        final int lastPage = toPage(reversePages ? firstSlot : lastSlot);
+        final int firstPos = mPageIndex.getFirstPosition(firstPage);
+        final int lastPos = mPageIndex.getLastPosition(lastPage);
+        TraceCompat.beginSection(TRACE_FILL);
+        try {
+            recycleViewsOutOfWindow(recycler, firstPos, lastPos);
+            for (int page = firstPage; page <= lastPage; page++) {
+                final int last = mPageIndex.getLastPosition(page);
+                for (int i = mPageIndex.getFirstPosition(page); i <= last; i++) {
+                    // The views which are in both the old and the new window are still attached
+                    if (i < mFirstAttachedPosition || i > mLastAttachedPosition) {
+                        layoutChildItem(i, page, recycler);
+                    }
+                }
+            }
+        } finally {
+            TraceCompat.endSection();
+        }
+        mFirstAttachedPosition = firstPos;
+        mLastAttachedPosition = lastPos;
+        if (mOnLoadAround != null) {
+            dispatchLoadAround(firstPage, lastPage);
+        }
+    }
+
+    /**
+     * Fills the window of the circular mode, where the slot after the last page holds the
+     * first page again, so the pages across the seam are laid out like any others. The
+     * window is cut to the page count, since a position has only one view and cannot be
+     * shown twice. A page which stays in the window at another slot, which only happens when
+     * the window holds every page, is moved instead of being bound again.
+     */
+    private void fillAround(RecyclerView.Recycler recycler) {
+        final int pageCount = mLayoutState.mTotalPageSize;
+        final int pageExtent = mLayoutConfig.mPageExtent;
+        int firstSlot = mScrollOffset / pageExtent;
+        int lastSlot = (mScrollOffset + pageExtent - 1) / pageExtent;
+        final int limit = getWindowPageLimit();
+        for (int i = 0; i < limit && lastSlot - firstSlot + 1 < pageCount; i++) {
+            firstSlot--;
+            if (lastSlot - firstSlot + 1 < pageCount) {
+                lastSlot++;
+            }
+        }
+        final int oldFirstSlot = mWindowFirstSlot;
+        final int oldLastSlot = mWindowLastSlot;
+        if (firstSlot == oldFirstSlot && lastSlot == oldLastSlot) {
+            return;
+        }
+        mWindowFirstSlot = firstSlot;
+        mWindowLastSlot = lastSlot;
+        TraceCompat.beginSection(TRACE_FILL);
+        int firstPage = pageCount;
+        int lastPage = -1;
+        try {
+            for (int i = getChildCount() - 1; i >= 0; i--) {
+                final View child = getChildAt(i);
+                final int page = mPageIndex.getPage(getPosition(child));
+                final int slot = findWindowSlot(page, firstSlot, lastSlot);
+                final int oldSlot = findWindowSlot(page, oldFirstSlot, oldLastSlot);
+                if (slot == NO_SLOT) {
+                    removeAndRecycleViewAt(i, recycler);
+                    if (mLayoutMetrics != null) {
+                        mLayoutMetrics.mViewsRecycled++;
+                    }
+                } else if (oldSlot != NO_SLOT && oldSlot != slot) {
+                    offsetChild(child, (slot - oldSlot) * pageExtent);
+                }
+            }
+            for (int slot = firstSlot; slot <= lastSlot; slot++) {
+                final int page = toWindowPage(slot);
+                firstPage = Math.min(firstPage, page);
+                lastPage = Math.max(lastPage, page);
+                if (findWindowSlot(page, oldFirstSlot, oldLastSlot) != NO_SLOT) {
+                    continue;
+                }
+                final int last = mPageIndex.getLastPosition(page);
+                for (int i = mPageIndex.getFirstPosition(page); i <= last; i++) {
+                    layoutChildItem(i, page, recycler);
+                }
+            }
+        } finally {
+            TraceCompat.endSection();
+        }
+        // The attached positions may not be contiguous across the seam, so these only bound
+        // them
+        mFirstAttachedPosition = mPageIndex.getFirstPosition(firstPage);
+        mLastAttachedPosition = mPageIndex.getLastPosition(lastPage);
+        if (mOnLoadAround != null) {
+            dispatchLoadAround(firstPage, lastPage);
+        }
+    }
+
+    /**
+     * Returns the virtual slot of the given page in the given window, or {@link #NO_SLOT} if
+     * the page is not in it.
+     */
+    private int findWindowSlot(int page, int firstSlot, int lastSlot) {
+        if (lastSlot < firstSlot) {
+            return NO_SLOT;
+        }
+        final int slot = firstSlot
+                + floorMod(toPageSlot(page) - firstSlot, mLayoutState.mTotalPageSize);
+        return slot <= lastSlot ? slot : NO_SLOT;
+    }
+
+    private int toWindowPage(int slot) {
+        return toPage(floorMod(slot, mLayoutState.mTotalPageSize));
+    }
+
+    private void resetWindow() {
+        mFirstAttachedPosition = RecyclerView.NO_POSITION;
+        mLastAttachedPosition = RecyclerView.NO_POSITION;
+        mWindowFirstSlot = 0;
+        mWindowLastSlot = -1;
+    }
+
+    private static int floorMod(int value, int divisor) {
+        final int mod = value % divisor;
+        return mod < 0 ? mod + divisor : mod;
+    }
+
+    /**
+     * Reports the positions of the attached pages and the pages around them if they are not
+     * the reported ones. It is posted, since the adapter cannot be notified during a layout
+     * or a scroll.
+     */
+    private void dispatchLoadAround(int firstPage, int lastPage) {
+        final int firstPosition =
+                mPageIndex.getFirstPosition(Math.max(0, firstPage - mLoadAroundPageLimit));
+        final int lastPosition = mPageIndex.getLastPosition(
+                Math.min(mPageIndex.getPageCount() - 1, lastPage + mLoadAroundPageLimit));
+        if (firstPosition == mLoadAroundFirstPosition
+                && lastPosition == mLoadAroundLastPosition) {
+            return;
+        }
+        mLoadAroundFirstPosition = firstPosition;
+        mLoadAroundLastPosition = lastPosition;
+        if (!mLoadAroundPosted) {
+            mLoadAroundPosted = true;
+            mMainHandler.post(mLoadAroundRunnable);
+        }
+    }
+
+    private int getFirstWindowSlot() {
+        return Math.max(0, mScrollOffset / mLayoutConfig.mPageExtent - getWindowPageLimit());
+    }
+
+    private int getLastWindowSlot() {
+        final int pageExtent = mLayoutConfig.mPageExtent;
+        return Math.min(mLayoutState.mTotalPageSize - 1,
+                (mScrollOffset + pageExtent - 1) / pageExtent + getWindowPageLimit());
+    }
+
+    private int getWindowPageLimit() {
+        return mCrossingPages ? 0 : mOffscreenPageLimit;
+    }
+
+    /**
+     * While a smooth scroll crosses several pages, the offscreen pages are not attached, so
+     * only the pages which become visible are filled. The offscreen pages of the page it
+     * ends on are attached again by a layout.
+     */
+    void setCrossingPages(boolean crossingPages) {
+        if (mCrossingPages == crossingPages) {
+            return;
+        }
+        mCrossingPages = crossingPages;
+        if (!crossingPages) {
+            requestLayout();
+        }
+    }
+
+    /**
+     * Reports the positions of the page just outside the window in the scrolling direction,
+     * so the GapWorker creates and binds them in the idle time of the frames before they
+     * are attached. The distance of a position is how far its item is from the viewport.
+     */
+    @Override
+    public void collectAdjacentPrefetchPositions(int dx, int dy, RecyclerView.State state,
+            LayoutPrefetchRegistry layoutPrefetchRegistry) {
+        final boolean horizontal = mLayoutConfig.mOrientation == HORIZONTAL;
+        final int delta = horizontal ? dx : dy;
+        final int pageExtent = mLayoutConfig.mPageExtent;
+        if (delta == 0 || mPageIndex.getPageCount() == 0 || pageExtent == 0
+                || mPageIndex.getItemCount() != state.getItemCount()) {
+            return;
+        }
+        final int page;
+        if (isPageWrapping()) {
+            // Otherwise the page past the window is attached, or is the one on its other side
+            if (mWindowLastSlot - mWindowFirstSlot + 2 >= mLayoutState.mTotalPageSize) {
+                return;
+            }
+            page = toWindowPage(delta > 0 ? mWindowLastSlot + 1 : mWindowFirstSlot - 1);
+        } else {
+            final int slot = delta > 0 ? getLastWindowSlot() + 1 : getFirstWindowSlot() - 1;
+            if (slot < 0 || slot >= mLayoutState.mTotalPageSize) {
+                return;
+            }
+            page = toPage(slot);
+        }
+        final int last = mPageIndex.getLastPosition(page);
+        for (int i = mPageIndex.getFirstPosition(page); i <= last; i++) {
+            final int start = horizontal ? getItemLeft(i, page) : getItemTop(i, page);
+            final int size = horizontal ? mPageIndex.getWidth(i) : mPageIndex.getHeight(i);
+            final int distance = delta > 0 ? start - pageExtent : -(start + size);
+            layoutPrefetchRegistry.addPosition(i, Math.max(0, distance));
+        }
+    }
+
+    /**
+     * Reports the positions of the current page, which are the first ones shown when this
+     * RecyclerView is nested in another one.
+     */
+    @Override
+    public void collectInitialPrefetchPositions(int adapterItemCount,
+            LayoutPrefetchRegistry layoutPrefetchRegistry) {
+        if (mPageIndex.getPageCount() == 0 || mPageIndex.getItemCount() != adapterItemCount) {
+            return;
+        }
+        final int page = getCurrentPage();
+        final int last = mPageIndex.getLastPosition(page);
+        for (int i = mPageIndex.getFirstPosition(page); i <= last; i++) {
+            layoutPrefetchRegistry.addPosition(i, 0);
+        }
+    }
+
+    private void recycleViewsOutOfWindow(RecyclerView.Recycler recycler, int firstPos,
+            int lastPos) {
+        for (int i = getChildCount() - 1; i >= 0; i--) {
+            final int pos = getPosition(getChildAt(i));
+            if (pos < firstPos || pos > lastPos) {
+                removeAndRecycleViewAt(i, recycler);
+                if (mLayoutMetrics != null) {
+                    mLayoutMetrics.mViewsRecycled++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the views left in place by {@link #scrapViewsFrom} if the scrolled size is not
+     * the one they were laid out with, which happens when the target page is removed.
+     */
+    private void offsetKeptViews(int oldScrollOffset, int oldPageSize) {
+        int oldSlotShift = 0;
+        if (mLayoutConfig.mReversePages) {
+            oldSlotShift = (mLayoutState.mTotalPageSize - oldPageSize) * mLayoutConfig.mPageExtent;
+        }
+        final int delta = oldScrollOffset + oldSlotShift - mScrollOffset;
+        if (delta != 0) {
+            offsetChildren(delta);
+        }
+    }
+
+    /**
+     * Drops the pages from the first changed position. Everything is dropped when the size,
+     * the paddings, the column or the direction is changed.
+     * @return The first position which has to be laid out again, or
+     * {@link RecyclerView#NO_POSITION} if the page index is up to date.
+     */
+    private int truncatePageIndex() {
+        if (isIndexConfigurationChanged()) {
+            invalidatePageIndex(0);
+            mIndexWidth = getWidth();
+            mIndexHeight = getHeight();
+            mIndexPaddingLeft = getPaddingLeft();
+            mIndexPaddingRight = getPaddingRight();
+            mIndexColumnWidth = mColumnWidth;
+            mIndexRevertLayout = isRevertLayout();
         }
-
-        private int getTargetLeftOffset() {
-            return mWidth * mTargetPage;
+        if (mIndexUpdatePosition == RecyclerView.NO_POSITION) {
+            return RecyclerView.NO_POSITION;
         }
+        return mIndexUpdatePosition == 0
+                ? 0 : mPageIndex.truncate(mIndexUpdatePosition, mIndexUnchangedFrom);
     }
 
-    private class Location {
-        private final int mLeft;
-        private final int mRight;
-        private final int mTop;
-        private final int mBottom;
-        private final int mPageIndex;
-        private final int mPosition;
-
-        Location(int left, int top, int right, int bottom, int pageIndex, int position) {
-            mLeft = left;
-            mRight = right;
-            mTop = top;
-            mBottom = bottom;
-            mPageIndex = pageIndex;
-            mPosition = position;
+    /**
+     * Resumes the page flow from the start of the page holding the first changed position.
+     * When an {@link ItemWidthProvider} is set, the full flow is the page plan computed in
+     * background.
+     * @param pagePlan The page plan to install when the full flow is computed again.
+     * @return The number of pages which have been computed.
+     */
+    private int updatePageIndex(RecyclerView.Recycler recycler, int start, PagePlan pagePlan) {
+        if (start == RecyclerView.NO_POSITION) {
+            return 0;
+        }
+        mSizeCache.setItemCount(getItemCount());
+        if (start == 0) {
+            initializeLayoutState(recycler);
+            if (pagePlan != null) {
+                mPagePlan = null;
+                mPageIndex = pagePlan.mPageIndex;
+                mIndexUpdatePosition = RecyclerView.NO_POSITION;
+                return mPageIndex.getPageCount();
+            }
+            mPageIndex.reset(getRealWidth(), getHeight());
         }
+        final int pagesComputed = appendItems(recycler);
+        mIndexUpdatePosition = RecyclerView.NO_POSITION;
+        return pagesComputed;
+    }
 
+    /**
+     * Requests the page plan of the new flow and leaves everything in place: the old pages,
+     * their views, the scrolled size and the anchor. The views still show the old data, and
+     * they are neither scrolled nor laid out again until the plan is installed, so the grid
+     * neither blanks nor jumps back to the first page meanwhile.
+     */
+    private void waitForPagePlan(RecyclerView.Recycler recycler) {
+        mSizeCache.setItemCount(getItemCount());
+        measureItem(0, recycler);
+        mLayoutState.mItemHeight = mSizeCache.getHeight(0);
+        requestPagePlan();
     }
 
-    // The horizontal scrolled size
-    private int mOffsetX;
-    private int mTotalSpace;
-    private boolean mRecycleChildrenOnDetach;
-    private final OrientationHelper mOrientationHelper;
-    private final LayoutState mLayoutState;
-    private final CurrentPageInfo mCurrentPageInfo;
-    private OnCompleteLayout mOnCompleteLayout;
-    private final AnchorInfo mAnchorInfo;
-    private int mPaddingLeft;
-    private int mPaddingRight;
-    private int mRowHeight;
-    private int mColumnWidth;
-    private int mColumn;
-    private int mRow = 1;
-    private List<Location> mLocations = new ArrayList<>(0);
-    private Context mContext;
+    private boolean isIndexConfigurationChanged() {
+        return mIndexWidth != getWidth() || mIndexHeight != getHeight()
+                || mIndexPaddingLeft != getPaddingLeft()
+                || mIndexPaddingRight != getPaddingRight()
+                || mIndexColumnWidth != mColumnWidth
+                || mIndexRevertLayout != isRevertLayout();
+    }
 
-    public GridPagerLayoutManager(Context context) {
-        mOrientationHelper =
-                OrientationHelper.createOrientationHelper(this, OrientationHelper.HORIZONTAL);
-        mLayoutState = new LayoutState();
-        mCurrentPageInfo = new CurrentPageInfo();
-        mAnchorInfo = new AnchorInfo();
-        mContext = context;
+    private void invalidatePageIndex(int position) {
+        invalidatePageIndex(position, Integer.MAX_VALUE);
     }
 
-    @Override
-    public RecyclerView.LayoutParams generateDefaultLayoutParams() {
-        return new RecyclerView.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
-                ViewGroup.LayoutParams.WRAP_CONTENT);
+    /**
+     * Marks the page index as out of date from the given position.
+     * @param unchangedFrom The first position from which the widths are known to be the same,
+     * which lets the page flow take back the pages from there. It is only known when items
+     * are changed, not when they are inserted, removed or moved.
+     */
+    private void invalidatePageIndex(int position, int unchangedFrom) {
+        mIndexUnchangedFrom = mIndexUpdatePosition == RecyclerView.NO_POSITION
+                ? unchangedFrom : Math.max(mIndexUnchangedFrom, unchangedFrom);
+        mIndexUpdatePosition = mIndexUpdatePosition == RecyclerView.NO_POSITION
+                ? position : Math.min(mIndexUpdatePosition, position);
+        // The data of a page plan in progress is out of date
+        mPagePlanGeneration++;
+        mPagePlanRequested = false;
+        mPagePlan = null;
+        discardSavedSizes();
     }
 
-    @Override
-    public void onLayoutChildren(RecyclerView.Recycler recycler, RecyclerView.State state) {
-        if (getItemCount() == 0) {
-            removeAndRecycleAllViews(recycler);
-            return;
-        }
-        if (state.isPreLayout()) {
-            return;
-        }
-        mOffsetX = 0;
+    /**
+     * The item height is taken from the first item. It is the height of every row when the
+     * items are not measured one by one.
+     */
+    private void initializeLayoutState(RecyclerView.Recycler recycler) {
         mLayoutState.reset();
-        mCurrentPageInfo.reset();
-        mAnchorInfo.reset();
-        if (mAnchorInfo.isConfigurationChanged()) {
-            mAnchorInfo.mWidth = mOrientationHelper.getEnd();
+        measureItem(0, recycler);
+        mLayoutState.mItemHeight = mSizeCache.getHeight(0);
+    }
+
+    /**
+     * Runs the page flow to the last position. The item size is taken from the size cache
+     * when possible. In the regular layout the width is the column width and the height is
+     * the one of the first item, unless an {@link ItemSizeProvider} gives the heights, so no
+     * item has to be measured. The flow stops early when it takes back the pages after the
+     * changed items.
+     * @return The number of pages appended by the flow, without the ones taken back.
+     */
+    private int appendItems(RecyclerView.Recycler recycler) {
+        final int pageCount = mPageIndex.getPageCount();
+        final int reusedPageCount = mPageIndex.getReusedPageCount();
+        final int count = getItemCount();
+        while (mPageIndex.getItemCount() < count) {
+            final int position = mPageIndex.getItemCount();
+            final int width = getItemWidth(position, recycler);
+            mPageIndex.append(width, getItemHeight(position, recycler));
         }
-        detachAndScrapAttachedViews(recycler);
-        fill(recycler, state);
-        mLayoutState.mTotalPageSize = mCurrentPageInfo.mCurrentPage;
-        mTotalSpace = (mLayoutState.mTotalPageSize - 1) * getWidth();
-        if (mAnchorInfo.mTargetPage == 0) {
-            mAnchorInfo.mTargetPage = isRevertLayout() ? mLayoutState.mTotalPageSize : 0;
-        }
-        if (mOnCompleteLayout != null) {
-            mOnCompleteLayout
-                    .onCompleteLayout(mAnchorInfo.mTargetPage == 0
-                                    || mAnchorInfo.mTargetPage == mLayoutState.mTotalPageSize,
-                            mLayoutState.mTotalPageSize);
-        }
-        mCurrentPageInfo.reset();
-        if (isRevertLayout()) {
-            mOffsetX = mAnchorInfo.getTargetLeftOffset() - getWidth();
-            offsetChildrenHorizontal(-mOffsetX);
-        } else {
-            mOffsetX = mAnchorInfo.getTargetLeftOffset();
+        return mPageIndex.getPageCount() - pageCount
+                - (mPageIndex.getReusedPageCount() - reusedPageCount);
+    }
+
+    private int getItemWidth(int position, RecyclerView.Recycler recycler) {
+        if (mColumnWidth > 0) {
+            return mColumnWidth;
+        }
+        if (mItemWidthProvider != null) {
+            return mItemWidthProvider.getItemWidth(position);
         }
+        measureItem(position, recycler);
+        return mSizeCache.getWidth(position);
     }
 
-    private synchronized void fill(RecyclerView.Recycler recycler, RecyclerView.State state) {
-        if (state.isPreLayout()) {
-            return;
+    /**
+     * Returns the height of a position whose width has been taken. An
+     * {@link ItemSizeProvider} gives it in any mode. Otherwise the irregular layout without
+     * a provider has measured the item, and the other modes take the height of the first
+     * item, so the regular layout still measures a single item.
+     */
+    private int getItemHeight(int position, RecyclerView.Recycler recycler) {
+        if (mItemWidthProvider instanceof ItemSizeProvider) {
+            return ((ItemSizeProvider) mItemWidthProvider).getItemHeight(position);
         }
-        if (isRevertLayout()) {
-            revertLayoutChunk(recycler);
-        } else {
-            layoutChunk(recycler);
+        if (!isVariableRowHeight()) {
+            return mLayoutState.mItemHeight;
         }
+        measureItem(position, recycler);
+        return mSizeCache.getHeight(position);
+    }
+
+    /**
+     * Whether each row can be as tall as its tallest item, which needs the height of every
+     * item: the irregular layout measures them, and an {@link ItemSizeProvider} gives them.
+     */
+    private boolean isVariableRowHeight() {
+        return mItemWidthProvider instanceof ItemSizeProvider
+                || (mColumnWidth <= 0 && mItemWidthProvider == null);
+    }
 
+    private boolean isPagePlanEnabled() {
+        return mItemWidthProvider != null && mColumnWidth <= 0;
     }
 
-    private void layoutChunk(RecyclerView.Recycler recycler) {
-        int count = getItemCount();
-        for (int i = 0; i < count; i++) {
-            layoutChildItem(i, recycler.getViewForPosition(i));
+    /**
+     * Returns the page plan computed in background if it is still valid for the current
+     * item count and page size, or null.
+     */
+    private PagePlan findPagePlan() {
+        final PagePlan plan = mPagePlan;
+        if (plan == null || plan.mGeneration != mPagePlanGeneration
+                || plan.mPageIndex.getItemCount() != getItemCount()
+                || !plan.mPageIndex.matches(getRealWidth(), getHeight())) {
+            return null;
         }
+        return plan;
     }
 
-    private void revertLayoutChunk(RecyclerView.Recycler recycler) {
-        int count = getItemCount();
-        mLocations.clear();
-        for (int i = 0; i < count; i++) {
-            computeLayoutChildItem(i, recycler.getViewForPosition(i));
+    /**
+     * Computes the page flow of all items in background with the widths given by the
+     * {@link ItemWidthProvider}. The result is published with a single volatile write, and
+     * the main thread is only told to lay out again. The result is dropped if the data or
+     * the page size has been changed meanwhile.
+     */
+    private void requestPagePlan() {
+        if (mPagePlanRequested) {
+            return;
         }
-        for (int i = count - 1; i >= 0; i--) {
-            Location location = mLocations.get(i);
-            View itemView = recycler.getViewForPosition(location.mPosition);
-            measureChildWithMargins(itemView, 0, 0);
-            addView(itemView);
-            int left = location.mLeft - (location.mPageIndex - 1) * getWidth();
-            int right = location.mRight - (location.mPageIndex - 1) * getWidth();
-            left += (mCurrentPageInfo.mCurrentPage - location.mPageIndex) * getWidth();
-            right += (mCurrentPageInfo.mCurrentPage - location.mPageIndex) * getWidth();
-            layoutDecoratedWithMargins(itemView, left, location.mTop, right, location.mBottom);
+        mPagePlanRequested = true;
+        final int generation = mPagePlanGeneration;
+        final ItemWidthProvider provider = mItemWidthProvider;
+        final ItemSizeProvider sizeProvider = provider instanceof ItemSizeProvider
+                ? (ItemSizeProvider) provider : null;
+        final int itemCount = getItemCount();
+        final int availableWidth = getRealWidth();
+        final int availableHeight = getHeight();
+        final int itemHeight = mLayoutState.mItemHeight;
+        mPagePlanExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final PageIndex plan = new PageIndex();
+                plan.reset(availableWidth, availableHeight);
+                for (int i = 0; i < itemCount; i++) {
+                    plan.append(provider.getItemWidth(i),
+                            sizeProvider != null ? sizeProvider.getItemHeight(i) : itemHeight);
+                }
+                mPagePlan = new PagePlan(plan, generation);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPagePlanReady(generation);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPagePlanReady(int generation) {
+        if (generation != mPagePlanGeneration) {
+            return;
         }
-        mLocations.clear();
+        mPagePlanRequested = false;
+        requestLayout();
     }
 
-    private void computeLayoutChildItem(int pos, View itemView) {
-        measureChildWithMargins(itemView, 0, 0);
-        initializeCurrentPage(itemView);
-        resetCurrentPageIndex(pos);
-        final int itemWidth = mColumnWidth > 0 ? mColumnWidth :
-                mOrientationHelper.getDecoratedMeasurement(itemView);
-        int right = mCurrentPageInfo.mCurrentPageLeft;
-        int left = right - itemWidth;
-        mCurrentPageInfo.mCurrentRowTotalWidth += itemWidth;
-        if (exceedRealWidth(mCurrentPageInfo.mCurrentRowTotalWidth)) {
-            if (exceedBottom(mLayoutState.mItemHeight, mCurrentPageInfo.mRow)) {
-                resetCurrentPageInfo();
-            } else {
-                addRow();
-            }
-            right = mCurrentPageInfo.mHorizontalOffset;
-            left = right - itemWidth;
-            mCurrentPageInfo.mCurrentRowTotalWidth = itemWidth;
+    /**
+     * Attaches the view of the given position and lays it out at the place recorded by the
+     * page index. Both directions share it, the reverse layout only puts the rows from
+     * right to left. The location is computed from the primitive arrays of the index, so
+     * nothing is allocated and the view is measured once.
+     */
+    private void layoutChildItem(int pos, int page, RecyclerView.Recycler recycler) {
+        final View itemView = recycler.getViewForPosition(pos);
+        if (mLayoutMetrics != null) {
+            mLayoutMetrics.mViewsObtained++;
         }
-        mCurrentPageInfo.mCurrentPageLeft = left;
-        final int top = mCurrentPageInfo.mCurrentPageTop;
-        final int bottom = top + mLayoutState.mItemHeight;
-        // Scrolled to the target page, So it is need to use the target page as the start point
-        // for correcting the offset
-        left -= mAnchorInfo.getTargetLeftOffset();
-        right -= mAnchorInfo.getTargetLeftOffset();
-        mLocations.add(new Location(left, top, right, bottom, mCurrentPageInfo.mCurrentPage, pos));
+        addView(itemView);
+        layoutItemView(itemView, pos, page);
     }
 
-    private void layoutChildItem(int pos, View itemView) {
+    private void layoutItemView(View itemView, int pos, int page) {
         measureChildWithMargins(itemView, 0, 0);
-        addView(itemView);
-        initializeCurrentPage(itemView);
-        resetCurrentPageIndex(pos);
-        final int itemWidth = mColumnWidth > 0 ? mColumnWidth :
-                mOrientationHelper.getDecoratedMeasurement(itemView);
-        int left = mCurrentPageInfo.mCurrentPageLeft;
-        int right = left + itemWidth;
-        if (exceedRightEdge(right, mCurrentPageInfo.mCurrentPage)) {
-            if (exceedBottom(mLayoutState.mItemHeight, mCurrentPageInfo.mRow)) {
-                resetCurrentPageInfo();
-            } else {
-                addRow();
-            }
-            left = mCurrentPageInfo.mHorizontalOffset;
-            right = left + itemWidth;
+        if (mLayoutMetrics != null) {
+            mLayoutMetrics.mViewsMeasured++;
         }
-        mCurrentPageInfo.mCurrentPageLeft = right;
-        final int top = mCurrentPageInfo.mCurrentPageTop;
-        final int bottom = top + mLayoutState.mItemHeight;
-        left -= mAnchorInfo.getTargetLeftOffset();
-        right -= mAnchorInfo.getTargetLeftOffset();
-        layoutDecoratedWithMargins(itemView, left, top, right, bottom);
+        final int left = getItemLeft(pos, page);
+        final int top = getItemTop(pos, page);
+        layoutDecoratedWithMargins(itemView, left, top, left + mPageIndex.getWidth(pos),
+                top + mPageIndex.getHeight(pos));
     }
 
-    private void resetCurrentPageIndex(int pos) {
-        if (mCurrentPageInfo.mStartPos == -1) {
-            mCurrentPageInfo.mStartPos = pos;
-        } else {
-            mCurrentPageInfo.mLastPos = pos;
-        }
+    /**
+     * Returns the left of the given position relative to the viewport.
+     */
+    private int getItemLeft(int pos, int page) {
+        final LayoutConfig config = mLayoutConfig;
+        final int pageLeft = config.mOrientation == HORIZONTAL ? getPageStart(page) : 0;
+        return pageLeft + mPageIndex.getLeftInPage(pos, config.mWidth, config.mPaddingLeft,
+                config.mPaddingRight, config.mRevertLayout);
     }
 
-    private void initializeCurrentPage(View itemView){
-        if (mLayoutState.mItemHeight == 0) {
-            mLayoutState.mItemHeight =
-                    mOrientationHelper.getDecoratedMeasurementInOther(itemView);
-            if (mLayoutState.mItemHeight != 0) {
-                mLayoutState.mTotalRow = getHeight() / mLayoutState.mItemHeight;
-                mLayoutState.mVerticalPadding =
-                        getHeight() - mLayoutState.mTotalRow * mLayoutState.mItemHeight;
-            }
-            mCurrentPageInfo.mHorizontalOffset = mCurrentPageInfo.mCurrentPageLeft;
+    /**
+     * Returns the top of the given position relative to the viewport.
+     */
+    private int getItemTop(int pos, int page) {
+        final int pageTop = mLayoutConfig.mOrientation == VERTICAL ? getPageStart(page) : 0;
+        return pageTop + mPageIndex.getTop(pos);
+    }
+
+    private int getPageStart(int page) {
+        return getPageSlot(page) * mLayoutConfig.mPageExtent - mScrollOffset;
+    }
+
+    /**
+     * Returns the slot a page is laid out in. In the circular mode it is the virtual slot in
+     * the turn of the pages which starts one slot before the window, so the pages on both
+     * sides of the window are on the right side, unless the window holds every page.
+     */
+    private int getPageSlot(int page) {
+        if (!isPageWrapping()) {
+            return toPageSlot(page);
         }
+        final int pageCount = mLayoutState.mTotalPageSize;
+        final int firstSlot = mWindowLastSlot - mWindowFirstSlot + 1 < pageCount
+                ? mWindowFirstSlot - 1 : mWindowFirstSlot;
+        return firstSlot + floorMod(toPageSlot(page) - firstSlot, pageCount);
     }
 
-    private void addRow() {
-        mCurrentPageInfo.mRow += 1;
-        mCurrentPageInfo.mCurrentPageTop += mLayoutState.mItemHeight;
+    /**
+     * The slot is the place of a page in the scrolled content. In the reverse horizontal
+     * layout the first page is put in the last slot.
+     */
+    private int toPageSlot(int page) {
+        return mLayoutConfig.mReversePages ? mLayoutState.mTotalPageSize - 1 - page : page;
     }
 
-    private void resetCurrentPageInfo() {
-        mCurrentPageInfo.mHorizontalOffset += getWidth();
-        mCurrentPageInfo.mCurrentPage += 1;
-        mCurrentPageInfo.mRow = 0;
-        mCurrentPageInfo.mCurrentPageTop = 0;
-        mCurrentPageInfo.mStartPos = mCurrentPageInfo.mLastPos;
+    private int toPage(int slot) {
+        return mLayoutConfig.mReversePages ? mLayoutState.mTotalPageSize - 1 - slot : slot;
     }
 
-    private boolean exceedRightEdge(int right, int currentPage) {
-        return right + getPaddingRight() > currentPage * getWidth();
+    /**
+     * Makes sure the size of the given position is cached. The view is only measured if
+     * the position is unknown or has been changed, and it is recycled as soon as it is
+     * measured unless it is attached.
+     */
+    private void measureItem(int position, RecyclerView.Recycler recycler) {
+        final long id = getStableId(position);
+        if (mSizeCache.contains(position, id)) {
+            return;
+        }
+        View itemView = findViewByPosition(position);
+        final boolean attached = itemView != null;
+        if (!attached) {
+            itemView = recycler.getViewForPosition(position);
+            measureChildWithMargins(itemView, 0, 0);
+            if (mLayoutMetrics != null) {
+                mLayoutMetrics.mViewsObtained++;
+                mLayoutMetrics.mViewsMeasured++;
+            }
+        }
+        mSizeCache.put(position, id, mOrientationHelper.getDecoratedMeasurement(itemView),
+                mOrientationHelper.getDecoratedMeasurementInOther(itemView));
+        if (!attached) {
+            recycler.recycleView(itemView);
+            if (mLayoutMetrics != null) {
+                mLayoutMetrics.mViewsRecycled++;
+            }
+        }
     }
 
-    private boolean exceedRealWidth(int width) {
-        return width > getRealWidth();
+    /**
+     * The items are measured in the size of the RecyclerView, so the cached sizes follow it.
+     */
+    private void updateMeasureSpace() {
+        mSizeCache.setMeasureSpace(getWidth(), getHeight(),
+                mRecyclerView != null ? mRecyclerView.getAdapter() : null);
     }
 
-    private boolean exceedBottom(int itemHeightUsed, int row) {
-        return (row + 1) * itemHeightUsed + mLayoutState.mVerticalPadding >= getHeight();
+    private long getStableId(int position) {
+        final RecyclerView.Adapter adapter =
+                mRecyclerView != null ? mRecyclerView.getAdapter() : null;
+        return adapter != null && adapter.hasStableIds()
+                ? adapter.getItemId(position) : RecyclerView.NO_ID;
     }
 
     @Override
@@ -315,42 +1467,179 @@ public class GridPagerLayoutManager extends RecyclerView.LayoutManager {
             removeAndRecycleAllViews(recycler);
             recycler.clear();
         }
-        mOffsetX = 0;
+        mScrollOffset = 0;
+        mRecyclerView = null;
+        if (mLoadAroundPosted) {
+            mMainHandler.removeCallbacks(mLoadAroundRunnable);
+            mLoadAroundPosted = false;
+            mLoadAroundFirstPosition = RecyclerView.NO_POSITION;
+            mLoadAroundLastPosition = RecyclerView.NO_POSITION;
+        }
+    }
+
+    @Override
+    public void onAttachedToWindow(RecyclerView view) {
+        super.onAttachedToWindow(view);
+        mRecyclerView = view;
+    }
+
+    @Override
+    public void onAdapterChanged(RecyclerView.Adapter oldAdapter,
+            RecyclerView.Adapter newAdapter) {
+        mSizeCache.clear();
+        invalidatePageIndex(0);
+        mResetScrollPosition = true;
+    }
+
+    @Override
+    public void onItemsChanged(RecyclerView recyclerView) {
+        mSizeCache.onDataSetChanged();
+        invalidatePageIndex(0);
+    }
+
+    @Override
+    public void onItemsAdded(RecyclerView recyclerView, int positionStart, int itemCount) {
+        mSizeCache.insert(positionStart, itemCount);
+        invalidatePageIndex(positionStart);
+    }
+
+    @Override
+    public void onItemsRemoved(RecyclerView recyclerView, int positionStart, int itemCount) {
+        mSizeCache.remove(positionStart, itemCount);
+        invalidatePageIndex(positionStart);
+    }
+
+    @Override
+    public void onItemsUpdated(RecyclerView recyclerView, int positionStart, int itemCount) {
+        mSizeCache.invalidate(positionStart, itemCount);
+        invalidatePageIndex(positionStart, positionStart + itemCount);
+    }
+
+    @Override
+    public void onItemsMoved(RecyclerView recyclerView, int from, int to, int itemCount) {
+        mSizeCache.move(from, to, itemCount);
+        invalidatePageIndex(Math.min(from, to));
     }
 
     @Override
     public boolean canScrollHorizontally() {
-        return true;
+        return mOrientation == HORIZONTAL;
     }
 
     @Override
     public boolean canScrollVertically() {
-        return false;
+        return mOrientation == VERTICAL;
     }
 
     @Override
     public int scrollHorizontallyBy(int dx, RecyclerView.Recycler recycler,
             RecyclerView.State state) {
-        int distance = mOffsetX + dx;
-        int result = dx;
+        return mOrientation == HORIZONTAL ? scrollBy(dx, recycler, state) : 0;
+    }
+
+    @Override
+    public int scrollVerticallyBy(int dy, RecyclerView.Recycler recycler,
+            RecyclerView.State state) {
+        return mOrientation == VERTICAL ? scrollBy(dy, recycler, state) : 0;
+    }
+
+    private int scrollBy(int delta, RecyclerView.Recycler recycler, RecyclerView.State state) {
+        TraceCompat.beginSection(TRACE_SCROLL);
+        beginPass(LayoutMetrics.PASS_SCROLL);
+        try {
+            return scrollPagesBy(delta, recycler, state);
+        } finally {
+            endPass();
+            TraceCompat.endSection();
+        }
+    }
+
+    private int scrollPagesBy(int delta, RecyclerView.Recycler recycler,
+            RecyclerView.State state) {
+        if (mWaitingForPagePlan) {
+            return 0;
+        }
+        if (isPageWrapping()) {
+            mScrollOffset = wrapScrollOffset(mScrollOffset + delta);
+            offsetChildren(-delta);
+            fill(recycler, state);
+            return delta;
+        }
+        int distance = mScrollOffset + delta;
+        int result = delta;
         /*
-         * From left to right, if distance is larger than mTotalSpace, it means
-         * that it will scroll over the right edge of the last page. So it is need
-         * to correct the value of result. From right to left, if distance is negative,
-         * it means it will scroll over the left edge of the first page. Of course, it
-         * is also need to correct the value of result.
+         * Forward, if distance is larger than mTotalSpace, it means that it will
+         * scroll over the end edge of the last page. So it is need to correct the
+         * value of result. Backward, if distance is negative, it means it will
+         * scroll over the start edge of the first page. Of course, it is also need
+         * to correct the value of result.
          */
         if (distance > mTotalSpace) {
-            result = mTotalSpace - mOffsetX;
+            result = mTotalSpace - mScrollOffset;
         } else if (distance < 0) {
-            result = 0 - mOffsetX;
+            result = 0 - mScrollOffset;
         }
-        mOffsetX += result;
-        mAnchorInfo.mTargetPage = mOffsetX / getWidth();
-        offsetChildrenHorizontal(-result);
+        mScrollOffset += result;
+        offsetChildren(-result);
+        fill(recycler, state);
         return result;
     }
 
+    /**
+     * Brings a virtual scrolled size back into the first turn of the pages. The virtual
+     * slots of the window move with it, so the attached views keep their place and nothing
+     * overflows however far it is scrolled.
+     */
+    private int wrapScrollOffset(int scrollOffset) {
+        final int pageCount = mLayoutState.mTotalPageSize;
+        final int turn = pageCount * mLayoutConfig.mPageExtent;
+        final int wrapped = floorMod(scrollOffset, turn);
+        final int turns = (scrollOffset - wrapped) / turn;
+        mWindowFirstSlot -= turns * pageCount;
+        mWindowLastSlot -= turns * pageCount;
+        return wrapped;
+    }
+
+    private void offsetChild(View child, int delta) {
+        if (mLayoutConfig.mOrientation == HORIZONTAL) {
+            child.offsetLeftAndRight(delta);
+        } else {
+            child.offsetTopAndBottom(delta);
+        }
+    }
+
+    private void offsetChildren(int delta) {
+        if (mLayoutConfig.mOrientation == HORIZONTAL) {
+            offsetChildrenHorizontal(delta);
+        } else {
+            offsetChildrenVertical(delta);
+        }
+    }
+
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    /**
+     * Sets whether the pages are put side by side or stacked. A change brings back the
+     * first page, like a change of the width does.
+     */
+    public void setOrientation(int orientation) {
+        Check.isTrue(orientation == HORIZONTAL || orientation == VERTICAL);
+        if (orientation == mOrientation) {
+            return;
+        }
+        mOrientation = orientation;
+        requestLayout();
+    }
+
+    /**
+     * Returns the size of a page along the orientation.
+     */
+    int getPageExtent() {
+        return mOrientation == HORIZONTAL ? getWidth() : getHeight();
+    }
+
 
     /**
      * Set whether LayoutManager will recycle its children when it is detached from
@@ -358,7 +1647,8 @@ public class GridPagerLayoutManager extends RecyclerView.LayoutManager {
      * <p>
      * If you are using a {@link RecyclerView.RecycledViewPool}, it might be a good idea to set
      * this flag to <code>true</code> so that views will be available to other RecyclerViews
-     * immediately.
+     * immediately. A {@link PagerRecycledViewPool} is also sized from the pages of this
+     * layout manager.
      * <p>
      * Note that, setting this flag will result in a performance drop if RecyclerView
      * is restored.
@@ -378,10 +1668,135 @@ public class GridPagerLayoutManager extends RecyclerView.LayoutManager {
         return mRecycleChildrenOnDetach;
     }
 
+    /**
+     * Set the number of pages that should be attached on each side of the current page.
+     * The views of the other pages are recycled, so the number of attached views depends
+     * on the page size rather than on the item count.
+     * @param limit How many pages will be attached on each side of the current page.
+     */
+    public void setOffscreenPageLimit(int limit) {
+        Check.isTrue(limit >= 0, "Offscreen page limit should not be negative: %d", limit);
+        if (mOffscreenPageLimit != limit) {
+            mOffscreenPageLimit = limit;
+            requestLayout();
+        }
+    }
+
+    public int getOffscreenPageLimit() {
+        return mOffscreenPageLimit;
+    }
+
+    /**
+     * Sets whether the view cache of the recycler holds a page of views on top of the given
+     * size. The cached views keep their binding and are updated by the RecyclerView like the
+     * attached ones, so a page which has just left the window comes back without being bound
+     * again when the user flicks back and forth between neighbouring pages. It is off by
+     * default, and the view cache then keeps the size set by
+     * {@link RecyclerView#setItemViewCacheSize}.
+     * @param cacheOffscreenPage Whether a page of views is added to the view cache.
+     * @param itemViewCacheSize The view cache size the app needs besides the page. It is set
+     * back when the page is not cached anymore.
+     */
+    public void setCacheOffscreenPage(boolean cacheOffscreenPage, int itemViewCacheSize) {
+        Check.isTrue(itemViewCacheSize >= 0,
+                "View cache size should not be negative: %d", itemViewCacheSize);
+        if (mCacheOffscreenPage && !cacheOffscreenPage && mRecyclerView != null) {
+            mRecyclerView.setItemViewCacheSize(itemViewCacheSize);
+        }
+        mCacheOffscreenPage = cacheOffscreenPage;
+        mItemViewCacheSize = itemViewCacheSize;
+        mViewCacheSize = 0;
+        requestLayout();
+    }
+
+    /**
+     * Sets whether the pages wrap around, so the page after the last one is the first one,
+     * without copies of the data in the adapter. Only the pages of the window are laid out,
+     * the ones across the seam included. A single page does not wrap, and when there are
+     * fewer pages than the window holds, fewer offscreen pages are attached.
+     */
+    public void setCircular(boolean circular) {
+        if (mCircular != circular) {
+            mCircular = circular;
+            requestLayout();
+        }
+    }
+
+    public boolean isCircular() {
+        return mCircular;
+    }
+
+    /**
+     * Returns whether the scrolling wraps around at this point, which needs the circular
+     * mode, more than one page and a size.
+     */
+    boolean isPageWrapping() {
+        return mCircular && mLayoutState.mTotalPageSize > 1 && mLayoutConfig.mPageExtent > 0;
+    }
+
+    /**
+     * Set the provider of the item widths for the irregular layout. The page flow of all
+     * items is then computed on the given executor from the provided widths, so the items
+     * do not have to be bound and measured to know their pages. Only the views of the
+     * attached pages are bound, and the first item is still measured to get the height of
+     * every item, unless the provider is an {@link ItemSizeProvider}. In the regular layout
+     * only the heights of an {@link ItemSizeProvider} are used, which is how a grid of
+     * columns opts in to rows as tall as their tallest item. The provider is called on the
+     * executor and on the main thread, so it has to read the data from a snapshot which is
+     * safe to access from both.
+     * @param provider The provider of the decorated item widths, or null to measure the items.
+     * @param executor The executor which runs the page flow in background.
+     */
+    public void setItemWidthProvider(ItemWidthProvider provider, Executor executor) {
+        Check.isTrue(provider == null || executor != null,
+                "An executor is needed to compute the page flow in background");
+        mItemWidthProvider = provider;
+        mPagePlanExecutor = executor;
+        invalidatePageIndex(0);
+        requestLayout();
+    }
+
     public void setOnCompleteLayout(OnCompleteLayout onCompleteLayout) {
         mOnCompleteLayout = onCompleteLayout;
     }
 
+    /**
+     * Sets the listener of the positions to load, for an adapter backed by a paged data
+     * source. Its items which are not loaded are placeholders, and their widths are
+     * estimated, for example by an {@link ItemWidthProvider}. When they are loaded, the
+     * adapter notifies them as changed, and the pages are recomputed from the first of them
+     * until the flow meets the pages it had before.
+     * @param pageLimit How many pages to load on each side of the attached pages.
+     */
+    public void setOnLoadAround(OnLoadAround onLoadAround, int pageLimit) {
+        mOnLoadAround = onLoadAround;
+        mLoadAroundPageLimit = Math.max(0, pageLimit);
+        mLoadAroundFirstPosition = RecyclerView.NO_POSITION;
+        mLoadAroundLastPosition = RecyclerView.NO_POSITION;
+    }
+
+    /**
+     * Sets the listener of the cost of every pass, or null to stop counting. Nothing is
+     * counted or timed without a listener.
+     */
+    public void setOnLayoutMetrics(OnLayoutMetrics onLayoutMetrics) {
+        mOnLayoutMetrics = onLayoutMetrics;
+        mLayoutMetrics = onLayoutMetrics != null ? new LayoutMetrics() : null;
+    }
+
+    private void beginPass(int pass) {
+        if (mLayoutMetrics != null) {
+            mLayoutMetrics.begin(pass);
+        }
+    }
+
+    private void endPass() {
+        if (mLayoutMetrics != null) {
+            mLayoutMetrics.end();
+            mOnLayoutMetrics.onLayoutMetrics(mLayoutMetrics);
+        }
+    }
+
     @Override
     public int getPaddingLeft() {
         return mPaddingLeft > 0 ? mPaddingLeft : super.getPaddingLeft();
@@ -392,6 +1807,53 @@ public class GridPagerLayoutManager extends RecyclerView.LayoutManager {
         return mPaddingRight > 0 ? mPaddingRight : super.getPaddingRight();
     }
 
+    /**
+     * Returns the zero based page of the given position, or {@link RecyclerView#NO_POSITION}
+     * if it has not been laid out yet.
+     */
+    public int getPageOfPosition(int position) {
+        if (position < 0 || position >= mPageIndex.getItemCount()) {
+            return RecyclerView.NO_POSITION;
+        }
+        return mPageIndex.getPage(position);
+    }
+
+    /**
+     * Returns the first position of the given zero based page, or
+     * {@link RecyclerView#NO_POSITION} if there is no such page.
+     */
+    public int getFirstPositionOfPage(int page) {
+        if (page < 0 || page >= mPageIndex.getPageCount()) {
+            return RecyclerView.NO_POSITION;
+        }
+        return mPageIndex.getFirstPosition(page);
+    }
+
+    /**
+     * Returns the last position of the given zero based page, or
+     * {@link RecyclerView#NO_POSITION} if there is no such page.
+     */
+    public int getLastPositionOfPage(int page) {
+        if (page < 0 || page >= mPageIndex.getPageCount()) {
+            return RecyclerView.NO_POSITION;
+        }
+        return mPageIndex.getLastPosition(page);
+    }
+
+    /**
+     * Returns the zero based page under the left edge of the viewport.
+     */
+    public int getCurrentPage() {
+        if (mLayoutState.mTotalPageSize == 0 || getPageExtent() == 0) {
+            return 0;
+        }
+        return toPage(mScrollOffset / getPageExtent());
+    }
+
+    public int getPageCount() {
+        return mLayoutState.mTotalPageSize;
+    }
+
     public void setPaddingLeft(int paddingLeft) {
         mPaddingLeft = paddingLeft;
     }
@@ -400,39 +1862,71 @@ public class GridPagerLayoutManager extends RecyclerView.LayoutManager {
         mPaddingRight = paddingRight;
     }
 
+    /**
+     * The height is made of the first {@link #mRow} rows, unless the pages are stacked in a
+     * RecyclerView of an exact height. The sizes come from the size cache, so a measure pass
+     * only measures the items which are unknown or have been changed, and nothing when the
+     * rows are already known.
+     */
     @Override
     public void onMeasure(RecyclerView.Recycler recycler, RecyclerView.State state,
             int widthSpec, int heightSpec) {
+        TraceCompat.beginSection(TRACE_MEASURE);
+        beginPass(LayoutMetrics.PASS_MEASURE);
+        try {
+            updateLayoutConfig();
+            measure(recycler, state, widthSpec, heightSpec);
+        } finally {
+            endPass();
+            TraceCompat.endSection();
+        }
+    }
+
+    private void measure(RecyclerView.Recycler recycler, RecyclerView.State state,
+            int widthSpec, int heightSpec) {
         final int width = View.MeasureSpec.getSize(widthSpec);
         final int itemCount = state.getItemCount();
+        final int paddingLeft = mLayoutConfig.mPaddingLeft;
+        final int paddingRight = mLayoutConfig.mPaddingRight;
         int row = 0;
-        int offsetX = getPaddingLeft();
-        mColumnWidth = mColumn > 0 ? (width - getPaddingRight() - getPaddingLeft()) / mColumn : 0;
+        int offsetX = paddingLeft;
+        // The height of the rows so far, when each row is as tall as its tallest item
+        int rowsHeight = 0;
+        int rowHeight = 0;
+        mColumnWidth = mColumn > 0 ? (width - paddingRight - paddingLeft) / mColumn : 0;
+        updateMeasureSpace();
+        mSizeCache.setItemCount(itemCount);
         for (int i = 0; i < itemCount; i++) {
-            View view = recycler.getViewForPosition(i);
-            if (view != null) {
-                measureChildWithMargins(view, 0, 0);
-                final int itemWidth = mColumn > 0 ? mColumnWidth : view.getMeasuredWidth();
-                mRowHeight = Math.max(mRowHeight,
-                        mOrientationHelper.getDecoratedMeasurementInOther(view));
-                final int right = offsetX + itemWidth;
-                if (right + getPaddingRight() > width) {
-                    row++;
-                    offsetX = getPaddingLeft();
-                    if (row >= mRow) {
-                        break;
-                    }
-                } else {
-                    offsetX = right;
+            measureItem(i, recycler);
+            final int itemWidth = mColumn > 0 ? mColumnWidth : mSizeCache.getWidth(i);
+            final int itemHeight = mSizeCache.getHeight(i);
+            mRowHeight = Math.max(mRowHeight, itemHeight);
+            if (offsetX > paddingLeft && offsetX + itemWidth + paddingRight > width) {
+                row++;
+                rowsHeight += rowHeight;
+                rowHeight = 0;
+                offsetX = paddingLeft;
+                if (row >= mRow) {
+                    break;
                 }
-                if (i == itemCount - 1) row++;
             }
+            offsetX += itemWidth;
+            rowHeight = Math.max(rowHeight, itemHeight);
         }
-        setMeasuredDimension(width, mRowHeight * row);
+        if (row < mRow && offsetX > paddingLeft) {
+            row++;
+            rowsHeight += rowHeight;
+        }
+        final int height = isVariableRowHeight() ? rowsHeight : mRowHeight * row;
+        // Stacked pages are as tall as the RecyclerView when its height is exact
+        setMeasuredDimension(width, mOrientation == VERTICAL
+                && View.MeasureSpec.getMode(heightSpec) == View.MeasureSpec.EXACTLY
+                ? View.MeasureSpec.getSize(heightSpec) : height);
     }
 
     public void setRow(int row) {
         mRow = row;
+        invalidatePageIndex(0);
     }
 
     public void setColumn(int column) {
@@ -443,11 +1937,50 @@ public class GridPagerLayoutManager extends RecyclerView.LayoutManager {
         mRowHeight = rowHeight;
     }
 
+    /**
+     * Takes the configuration of the coming pass. The paddings and the width are read from
+     * the RecyclerView once per pass, and the direction once per configuration.
+     */
+    private void updateLayoutConfig() {
+        final LayoutConfig config = mLayoutConfig;
+        config.mRevertLayout = isRevertLayout();
+        config.mOrientation = mOrientation;
+        config.mReversePages = config.mRevertLayout && mOrientation == HORIZONTAL;
+        config.mPageExtent = getPageExtent();
+        config.mWidth = getWidth();
+        config.mPaddingLeft = getPaddingLeft();
+        config.mPaddingRight = getPaddingRight();
+        config.mRealWidth = config.mWidth - config.mPaddingLeft - config.mPaddingRight;
+    }
+
+    /**
+     * Reads the layout direction again in the next pass. {@link HorizontalRecyclerView} calls
+     * it when its configuration is changed, and any other RecyclerView which handles the
+     * configuration changes itself has to call it too.
+     */
+    public void onConfigurationChanged() {
+        mLayoutConfig.mDirectionKnown = false;
+        requestLayout();
+    }
+
     private int getRealWidth() {
-        return getWidth() - getPaddingLeft() - getPaddingRight();
+        return mLayoutConfig.mRealWidth;
+    }
+
+    /**
+     * Whether the first page is put in the last slot, which is only done when the pages of
+     * a right to left layout are put side by side.
+     */
+    boolean isReversePageOrder() {
+        return mOrientation == HORIZONTAL && isRevertLayout();
     }
 
-    private boolean isRevertLayout() {
-        return UIUtils.isLayoutRtl(mContext);
+    boolean isRevertLayout() {
+        final LayoutConfig config = mLayoutConfig;
+        if (!config.mDirectionKnown) {
+            config.mRtl = UIUtils.isLayoutRtl(mContext);
+            config.mDirectionKnown = true;
+        }
+        return config.mRtl;
     }
 }
\ No newline at end of file
@@ -6,19 +6,22 @@
 
 package com.ljr.com.multi.paging;
 
-import android.animation.Animator;
-import android.animation.AnimatorListenerAdapter;
-import android.animation.ValueAnimator;
 import android.content.Context;
 import android.support.v7.widget.RecyclerView;
-
-import java.util.concurrent.TimeUnit;
+import android.view.animation.DecelerateInterpolator;
+import android.widget.OverScroller;
 
 /**
- * It helps that the RecyclerView implements scrolling and fling automatically
+ * It helps that the RecyclerView implements scrolling and fling automatically. When a drag
+ * or a fling ends, the page to settle on is chosen from the dragged distance and the
+ * distance the fling would cover, so a strong fling can cross several pages, and the
+ * RecyclerView is settled on it by a smooth scroller, which runs on the animation frames
+ * of the RecyclerView. It follows the orientation of the {@link GridPagerLayoutManager},
+ * so it settles stacked pages too, and wraps around the pages in its circular mode.
  */
 public class HorizontalPagerScrollHelper {
-    private static final int FLING_ANIMATOR_DURATION = (int) TimeUnit.MILLISECONDS.toMillis(300);
+    // A drag longer than this part of the page turns the page
+    private static final int PAGE_TURN_FRACTION = 3;
 
     /**
      * It is used to monitor switching page event
@@ -30,108 +33,45 @@ public class HorizontalPagerScrollHelper {
     private class PagerFlingListener extends RecyclerView.OnFlingListener {
         @Override
         public boolean onFling(int velocityX, int velocityY) {
-            if (mScrollState != RecyclerView.SCROLL_STATE_IDLE) {
-                velocityX = getVelocityX();
-            }
-            final int fromX = mTotalOffsetX;
-            /*
-             * It may be invoked because of scrolling or switching pages.
-             * When velocityX isn't equal zero, onFling is invoked by scrolling.
-             * On the contrary, it is invoked by switching.
-             * The value of mCurrentPageNumber is from 0 to pageCount - 1.
-             */
-            if (velocityX < 0 && mCurrentPageNumber > 0) {
-                mCurrentPageNumber--;
-            } else if (velocityX > 0 && mCurrentPageNumber < mMaxPage) {
-                mCurrentPageNumber++;
-            }
-            int toX = getTotalOffsetX();
-            if (mAnimator == null) {
-                mAnimator = ValueAnimator.ofInt(fromX, toX);
-                mAnimator.setDuration(FLING_ANIMATOR_DURATION);
-                mAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-                    @Override
-                    public void onAnimationUpdate(ValueAnimator animation) {
-                        int scrolledX = (int) animation.getAnimatedValue();
-                        mRecyclerView.scrollBy(scrolledX - mTotalOffsetX, 0);
-                    }
-                });
-                mAnimator.addListener(createAnimatorListenerAdapter());
-            } else {
-                mAnimator.cancel();
-                mAnimator.removeAllListeners();
-                mAnimator.addListener(createAnimatorListenerAdapter());
-                mAnimator.setIntValues(fromX, toX);
-            }
-            mAnimator.start();
-            return true;
-        }
-
-        private AnimatorListenerAdapter createAnimatorListenerAdapter() {
-            return new AnimatorListenerAdapter() {
-                @Override
-                public void onAnimationEnd(Animator animation) {
-                    if (mOnPageChangeListener != null) {
-                        mOnPageChangeListener.onPageChange(getOffsetPageCount());
-                    }
-                    mOffsetX = 0;
-                }
-
-                @Override
-                public void onAnimationCancel(Animator animation) {
-                    mOffsetX = 0;
-                }
-            };
+            final GridPagerLayoutManager layoutManager = getLayoutManager();
+            return snapToTargetPage(layoutManager != null && layoutManager.canScrollVertically()
+                    ? velocityY : velocityX);
         }
     }
 
     private class GridPagerScrollListener extends RecyclerView.OnScrollListener {
         @Override
         public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            final int oldState = mScrollState;
             mScrollState = newState;
-            if (newState == RecyclerView.SCROLL_STATE_IDLE) {
-                mOnFlingListener.onFling(getVelocityX(), 0);
+            if (newState != RecyclerView.SCROLL_STATE_IDLE) {
+                return;
             }
-        }
-
-        @Override
-        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
-            mRecyclerViewWidth =
-                    mRecyclerViewWidth == 0 ? mRecyclerView.getWidth() : mRecyclerViewWidth;
-            if (mRecyclerViewWidth != mRecyclerView.getWidth()) {
-                mRecyclerViewWidth = mRecyclerView.getWidth();
-                mTotalOffsetX = getTotalOffsetX();
-                mOffsetX = 0;
+            if (oldState == RecyclerView.SCROLL_STATE_DRAGGING) {
+                // The drag is released too slowly to fling
+                snapToTargetPage(0);
+            } else if (oldState == RecyclerView.SCROLL_STATE_SETTLING) {
+                onSettled();
             }
-            mTotalOffsetX += dx;
-            mOffsetX += dx;
         }
     }
 
     private final RecyclerView mRecyclerView;
-    private ValueAnimator mAnimator;
-    private int mTotalOffsetX;
-    private int mOffsetX;
-    private int mCurrentPageNumber;
+    private final OverScroller mScroller;
+    // The zero based page which the RecyclerView is on, or is settling on
+    private int mCurrentPage;
     private int mPageCount;
     private int mScrollState;
-    private int mRecyclerViewWidth;
     private OnPageChangeListener mOnPageChangeListener;
-    private final PagerFlingListener mOnFlingListener;
-    private int mMaxPage;
     private Context mContext;
 
     private HorizontalPagerScrollHelper(RecyclerView recyclerView) {
         Check.isNotNull(recyclerView);
         mRecyclerView = recyclerView;
-        mOnFlingListener = new PagerFlingListener();
-        mRecyclerView.setOnFlingListener(mOnFlingListener);
-        mRecyclerView.addOnScrollListener(new GridPagerScrollListener());
         mContext = mRecyclerView.getContext();
-    }
-
-    private int getOffsetPageCount() {
-        return mTotalOffsetX / mRecyclerView.getWidth();
+        mScroller = new OverScroller(mContext, new DecelerateInterpolator());
+        mRecyclerView.setOnFlingListener(new PagerFlingListener());
+        mRecyclerView.addOnScrollListener(new GridPagerScrollListener());
     }
 
     public void setOnPageChangeListener(OnPageChangeListener listener) {
@@ -143,33 +83,107 @@ public class HorizontalPagerScrollHelper {
         return new HorizontalPagerScrollHelper(recyclerView);
     }
 
+    /**
+     * Starts again from the first page, which the layout manager has brought back, so a
+     * running settle is stopped.
+     */
     public void reinitialization(int pageCount) {
-        if (mAnimator != null) {
-            mAnimator.cancel();
+        if (mScrollState == RecyclerView.SCROLL_STATE_SETTLING) {
+            mRecyclerView.stopScroll();
         }
-        mOffsetX = 0;
-        mCurrentPageNumber = 0;
         mPageCount = pageCount;
-        mCurrentPageNumber = isLayoutRtl() ? mPageCount : 0;
-        mMaxPage = isLayoutRtl() ? mPageCount : mPageCount - 1;
-        mTotalOffsetX = isLayoutRtl() ? mPageCount * mRecyclerView.getWidth() : 0;
+        mCurrentPage = 0;
     }
 
-    private int getVelocityX() {
-        int velocityX = 0;
-        int dx = Math.abs(mOffsetX);
-        boolean changed = dx > mRecyclerView.getWidth() / 3;
-        if (changed) {
-            velocityX = mOffsetX < 0 ? -1 : 1;
+    /**
+     * Keeps the current page when the page count is changed by an incremental layout, such
+     * as the update of a few items or the load of a chunk of data. A running settle goes on
+     * to its page, since its smooth scroller targets a position and follows it to its new
+     * page, so only that page is clamped to the new count.
+     * @param currentPage The zero based page shown by the layout manager.
+     */
+    public void updatePageCount(int pageCount, int currentPage) {
+        mPageCount = pageCount;
+        final int page = mScrollState == RecyclerView.SCROLL_STATE_SETTLING
+                ? mCurrentPage : currentPage;
+        mCurrentPage = Math.max(0, Math.min(page, mPageCount - 1));
+    }
+
+    /**
+     * Chooses the page to settle on and starts settling. A fling turns the page when the
+     * dragged distance plus the distance the fling would cover is long enough, in the same
+     * way as a drag does, and it turns as many pages as that distance covers. Its velocity
+     * gives the settling duration.
+     * @return Whether the fling is consumed.
+     */
+    private boolean snapToTargetPage(int velocity) {
+        final GridPagerLayoutManager layoutManager = getLayoutManager();
+        final int pageExtent = layoutManager != null ? layoutManager.getPageExtent() : 0;
+        if (mPageCount == 0 || pageExtent == 0) {
+            return false;
+        }
+        // The scrolled size from the current page, positive toward the next slot
+        int distance = -layoutManager.getScrollDistanceToPage(mCurrentPage);
+        if (velocity != 0) {
+            // Only the distance matters, so the fling is projected on the x axis either way
+            mScroller.fling(0, 0, velocity, 0, Integer.MIN_VALUE, Integer.MAX_VALUE, 0, 0);
+            distance += mScroller.getFinalX();
+        }
+        int slotDelta = 0;
+        if (Math.abs(distance) > pageExtent / PAGE_TURN_FRACTION) {
+            final int pages = Math.max(1, Math.round((float) Math.abs(distance) / pageExtent));
+            slotDelta = distance > 0 ? pages : -pages;
+        }
+        if (layoutManager.isPageWrapping()) {
+            // The layout manager scrolls the short way around, so at most half of the pages
+            // are turned in the direction of the fling
+            slotDelta = Math.max(-(mPageCount - 1) / 2, Math.min(slotDelta, mPageCount / 2));
+        }
+        final int page = mCurrentPage + (isReversePageOrder() ? -slotDelta : slotDelta);
+        if (layoutManager.isPageWrapping()) {
+            mCurrentPage = ((page % mPageCount) + mPageCount) % mPageCount;
+        } else {
+            mCurrentPage = Math.max(0, Math.min(page, mPageCount - 1));
+        }
+        final int position = layoutManager.getFirstPositionOfPage(mCurrentPage);
+        if (position == RecyclerView.NO_POSITION
+                || layoutManager.getScrollDistanceToPage(mCurrentPage) == 0) {
+            mRecyclerView.stopScroll();
+            onSettled();
+            return true;
+        }
+        final PagerSmoothScroller scroller =
+                new PagerSmoothScroller(mContext, layoutManager, velocity);
+        scroller.setTargetPosition(position);
+        layoutManager.startSmoothScroll(scroller);
+        return true;
+    }
+
+    private void onSettled() {
+        final GridPagerLayoutManager layoutManager = getLayoutManager();
+        if (layoutManager != null) {
+            mCurrentPage = layoutManager.getCurrentPage();
+        }
+        if (mOnPageChangeListener != null) {
+            // The index counts the pages from the right in the reverse layout
+            mOnPageChangeListener.onPageChange(
+                    isReversePageOrder() ? mPageCount - mCurrentPage : mCurrentPage);
         }
-        return velocityX;
     }
 
-    private int getTotalOffsetX() {
-        return mCurrentPageNumber * mRecyclerView.getWidth();
+    private GridPagerLayoutManager getLayoutManager() {
+        final RecyclerView.LayoutManager layoutManager = mRecyclerView.getLayoutManager();
+        return layoutManager instanceof GridPagerLayoutManager
+                ? (GridPagerLayoutManager) layoutManager : null;
     }
 
-    private boolean isLayoutRtl() {
-        return UIUtils.isLayoutRtl(mContext);
+    /**
+     * The direction is the one cached by the layout manager, so the resources are not read
+     * on every fling. Stacked pages are never reversed.
+     */
+    private boolean isReversePageOrder() {
+        final GridPagerLayoutManager layoutManager = getLayoutManager();
+        return layoutManager != null
+                ? layoutManager.isReversePageOrder() : UIUtils.isLayoutRtl(mContext);
     }
-}
\ No newline at end of file
+}
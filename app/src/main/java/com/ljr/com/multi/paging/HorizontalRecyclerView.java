@@ -1,6 +1,7 @@
 package com.ljr.com.multi.paging;
 
 import android.content.Context;
+import android.content.res.Configuration;
 import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 
@@ -22,4 +23,12 @@ public class HorizontalRecyclerView extends RecyclerView {
     public boolean canScrollHorizontally(int direction) {
         return getLayoutManager().canScrollHorizontally() || super.canScrollHorizontally(direction);
     }
+
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        if (getLayoutManager() instanceof GridPagerLayoutManager) {
+            ((GridPagerLayoutManager) getLayoutManager()).onConfigurationChanged();
+        }
+    }
 }
@@ -0,0 +1,192 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2018 Opera Software AS. All rights reserved.
+//
+// This file is an original work developed by Opera Software AS
+
+package com.ljr.com.multi.paging;
+
+import android.support.v4.util.LruCache;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.Arrays;
+
+/**
+ * It caches the decorated size of every position, so the items only have to be measured
+ * again when the adapter reports them as changed. The entries follow the positions through
+ * inserts, removals and moves. When the adapter has stable ids, an entry is only used if
+ * the id of its position is still the same. A data set change drops every size, since
+ * any item may have new content.
+ * The sizes depend on the space the items are measured in, so they are only valid for the
+ * current size of the RecyclerView. With stable ids, the sizes of the last few spaces are
+ * kept by id in bounded LRU caches, so rotating back restores them without measuring.
+ */
+final class ItemSizeCache {
+    private static final int UNKNOWN = -1;
+    private static final int MAX_SPACES = 4;
+    private static final int MAX_SPACE_ENTRIES = 2048;
+
+    private int[] mWidths = new int[0];
+    private int[] mHeights = new int[0];
+    private long[] mIds = new long[0];
+    private int mItemCount;
+    private int mSpaceWidth;
+    private int mSpaceHeight;
+    // The sizes by id of the spaces which are not the current one, keyed by the space
+    private final LruCache<Long, LruCache<Long, Long>> mSpaces = new LruCache<>(MAX_SPACES);
+
+    boolean contains(int position, long id) {
+        return position < mItemCount && mWidths[position] != UNKNOWN && mIds[position] == id;
+    }
+
+    int getWidth(int position) {
+        return mWidths[position];
+    }
+
+    int getHeight(int position) {
+        return mHeights[position];
+    }
+
+    void put(int position, long id, int width, int height) {
+        setItemCount(Math.max(mItemCount, position + 1));
+        mWidths[position] = width;
+        mHeights[position] = height;
+        mIds[position] = id;
+    }
+
+    /**
+     * Adjusts the cache to the given item count. The new positions are unknown.
+     */
+    void setItemCount(int itemCount) {
+        if (itemCount > mWidths.length) {
+            final int capacity = Math.max(itemCount, mWidths.length * 2);
+            mWidths = Arrays.copyOf(mWidths, capacity);
+            mHeights = Arrays.copyOf(mHeights, capacity);
+            mIds = Arrays.copyOf(mIds, capacity);
+        }
+        if (itemCount > mItemCount) {
+            Arrays.fill(mWidths, mItemCount, itemCount, UNKNOWN);
+        }
+        mItemCount = itemCount;
+    }
+
+    /**
+     * Drops the sizes of the changed positions. Their ids are dropped from the other spaces
+     * too, since a changed item may have new content or new layout params.
+     */
+    void invalidate(int positionStart, int itemCount) {
+        final int end = Math.min(positionStart + itemCount, mItemCount);
+        if (positionStart >= end) {
+            return;
+        }
+        if (mSpaces.size() > 0) {
+            for (LruCache<Long, Long> space : mSpaces.snapshot().values()) {
+                for (int i = positionStart; i < end; i++) {
+                    if (mWidths[i] != UNKNOWN) {
+                        space.remove(mIds[i]);
+                    }
+                }
+            }
+        }
+        Arrays.fill(mWidths, positionStart, end, UNKNOWN);
+    }
+
+    /**
+     * Switches to the sizes measured in the given space. With stable ids, the known sizes are
+     * saved for the old space, and the ones saved for the new space are restored. Without
+     * them, every size is unknown. The first space is taken as is, since the items may have
+     * been measured before the RecyclerView got its size.
+     */
+    void setMeasureSpace(int width, int height, RecyclerView.Adapter adapter) {
+        if (width == mSpaceWidth && height == mSpaceHeight) {
+            return;
+        }
+        final boolean hadSpace = mSpaceWidth != 0 || mSpaceHeight != 0;
+        final long oldKey = getSpaceKey(mSpaceWidth, mSpaceHeight);
+        mSpaceWidth = width;
+        mSpaceHeight = height;
+        if (!hadSpace) {
+            return;
+        }
+        if (adapter == null || !adapter.hasStableIds()) {
+            Arrays.fill(mWidths, 0, mItemCount, UNKNOWN);
+            return;
+        }
+        LruCache<Long, Long> oldSpace = mSpaces.get(oldKey);
+        if (oldSpace == null) {
+            oldSpace = new LruCache<>(MAX_SPACE_ENTRIES);
+            mSpaces.put(oldKey, oldSpace);
+        }
+        for (int i = 0; i < mItemCount; i++) {
+            if (mWidths[i] != UNKNOWN) {
+                oldSpace.put(mIds[i], ((long) mWidths[i] << 32) | (mHeights[i] & 0xffffffffL));
+            }
+        }
+        final LruCache<Long, Long> space = mSpaces.get(getSpaceKey(width, height));
+        final int itemCount = Math.min(mItemCount, adapter.getItemCount());
+        for (int i = 0; i < mItemCount; i++) {
+            final long id = i < itemCount ? adapter.getItemId(i) : RecyclerView.NO_ID;
+            final Long size = space != null ? space.get(id) : null;
+            mIds[i] = id;
+            mWidths[i] = size != null ? (int) (size >> 32) : UNKNOWN;
+            mHeights[i] = size != null ? (int) (long) size : UNKNOWN;
+        }
+    }
+
+    private static long getSpaceKey(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+
+    void insert(int positionStart, int itemCount) {
+        if (positionStart > mItemCount) {
+            return;
+        }
+        final int oldCount = mItemCount;
+        setItemCount(mItemCount + itemCount);
+        final int moved = oldCount - positionStart;
+        System.arraycopy(mWidths, positionStart, mWidths, positionStart + itemCount, moved);
+        System.arraycopy(mHeights, positionStart, mHeights, positionStart + itemCount, moved);
+        System.arraycopy(mIds, positionStart, mIds, positionStart + itemCount, moved);
+        Arrays.fill(mWidths, positionStart, positionStart + itemCount, UNKNOWN);
+    }
+
+    void remove(int positionStart, int itemCount) {
+        if (positionStart >= mItemCount) {
+            return;
+        }
+        final int end = Math.min(positionStart + itemCount, mItemCount);
+        final int moved = mItemCount - end;
+        System.arraycopy(mWidths, end, mWidths, positionStart, moved);
+        System.arraycopy(mHeights, end, mHeights, positionStart, moved);
+        System.arraycopy(mIds, end, mIds, positionStart, moved);
+        mItemCount -= end - positionStart;
+    }
+
+    void move(int from, int to, int itemCount) {
+        if (Math.max(from, to) + itemCount > mItemCount) {
+            invalidate(Math.min(from, to), mItemCount);
+            return;
+        }
+        final int[] widths = Arrays.copyOfRange(mWidths, from, from + itemCount);
+        final int[] heights = Arrays.copyOfRange(mHeights, from, from + itemCount);
+        final long[] ids = Arrays.copyOfRange(mIds, from, from + itemCount);
+        remove(from, itemCount);
+        insert(to, itemCount);
+        System.arraycopy(widths, 0, mWidths, to, itemCount);
+        System.arraycopy(heights, 0, mHeights, to, itemCount);
+        System.arraycopy(ids, 0, mIds, to, itemCount);
+    }
+
+    /**
+     * Handles a data set change. Every item may have been changed, so every size is dropped,
+     * the ones of the other spaces included, as for the changed positions.
+     */
+    void onDataSetChanged() {
+        clear();
+    }
+
+    void clear() {
+        mItemCount = 0;
+        mSpaces.evictAll();
+    }
+}
@@ -0,0 +1,21 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2018 Opera Software AS. All rights reserved.
+//
+// This file is an original work developed by Opera Software AS
+
+package com.ljr.com.multi.paging;
+
+/**
+ * An {@link ItemWidthProvider} which gives the height of the items too, so the rows of the
+ * page flow computed in background can be as tall as their tallest item. With a plain
+ * {@link ItemWidthProvider}, every item is as tall as the first one. A grid of columns uses
+ * only its heights, and every item there is as tall as the first one without it.
+ */
+public interface ItemSizeProvider extends ItemWidthProvider {
+    /**
+     * Returns the height of the given position, including the margins and the decorations.
+     * It may be called on a background thread.
+     */
+    int getItemHeight(int position);
+}
@@ -0,0 +1,103 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2018 Opera Software AS. All rights reserved.
+//
+// This file is an original work developed by Opera Software AS
+
+package com.ljr.com.multi.paging;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * It inflates the item views of the first page in background, the way AsyncLayoutInflater
+ * does, while the data and the page plan are loaded. The adapter takes its views from it in
+ * onCreateViewHolder, so the first layout only binds them. A view which is not inflated yet
+ * when it is asked for is inflated on the spot, and the late ones are used by the next
+ * pages. The views must not need a Looper to be created, as with AsyncLayoutInflater.
+ * It has to be created once the RecyclerView has its layout manager, which gives the
+ * layout params of the views.
+ */
+public class ItemViewPreInflater {
+    private final RecyclerView mParent;
+    private final int mLayoutRes;
+    private final Executor mExecutor;
+    // Only used by the background thread, since a LayoutInflater is not thread safe
+    private final LayoutInflater mBackgroundInflater;
+    // The root the background thread inflates in, so the RecyclerView is not touched there.
+    // Its layout params keep the size and the margins of the item layout.
+    private final FrameLayout mBackgroundRoot;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayDeque<View> mViews = new ArrayDeque<>();
+    private volatile boolean mCancelled;
+
+    /**
+     * @param parent The RecyclerView the views are inflated for, which gives their layout
+     * params.
+     */
+    public ItemViewPreInflater(RecyclerView parent, int layoutRes, Executor executor) {
+        Check.isNotNull(parent);
+        Check.isNotNull(executor);
+        mParent = parent;
+        mLayoutRes = layoutRes;
+        mExecutor = executor;
+        mBackgroundInflater =
+                LayoutInflater.from(parent.getContext()).cloneInContext(parent.getContext());
+        mBackgroundRoot = new FrameLayout(parent.getContext());
+    }
+
+    /**
+     * Inflates the given number of views in background, for example the item count of the
+     * first page estimated from the size of the screen.
+     */
+    public void preInflate(final int count) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count && !mCancelled; i++) {
+                    final View view =
+                            mBackgroundInflater.inflate(mLayoutRes, mBackgroundRoot, false);
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!mCancelled) {
+                                mViews.add(view);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a view inflated in background, or inflates one if there is none left. It must
+     * be called on the main thread.
+     */
+    public View take() {
+        final View view = mViews.poll();
+        if (view == null) {
+            return LayoutInflater.from(mParent.getContext()).inflate(mLayoutRes, mParent, false);
+        }
+        final RecyclerView.LayoutManager layoutManager = mParent.getLayoutManager();
+        if (layoutManager != null) {
+            view.setLayoutParams(layoutManager.generateLayoutParams(view.getLayoutParams()));
+        }
+        return view;
+    }
+
+    /**
+     * Stops the inflation and drops the views which are not taken.
+     */
+    public void cancel() {
+        mCancelled = true;
+        mViews.clear();
+    }
+}
@@ -0,0 +1,19 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2018 Opera Software AS. All rights reserved.
+//
+// This file is an original work developed by Opera Software AS
+
+package com.ljr.com.multi.paging;
+
+/**
+ * It gives the width of the items from their data, so the page flow of
+ * {@link GridPagerLayoutManager} can be computed without binding the views.
+ */
+public interface ItemWidthProvider {
+    /**
+     * Returns the width of the given position, including the margins and the decorations.
+     * It may be called on a background thread.
+     */
+    int getItemWidth(int position);
+}
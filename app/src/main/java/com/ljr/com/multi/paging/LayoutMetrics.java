@@ -0,0 +1,71 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2018 Opera Software AS. All rights reserved.
+//
+// This file is an original work developed by Opera Software AS
+
+package com.ljr.com.multi.paging;
+
+/**
+ * The cost of one measure, layout or scroll pass of {@link GridPagerLayoutManager}. The same
+ * instance is reported for every pass, so it must not be kept after the listener returns.
+ */
+public final class LayoutMetrics {
+    public static final int PASS_MEASURE = 0;
+    public static final int PASS_LAYOUT = 1;
+    public static final int PASS_PRE_LAYOUT = 2;
+    public static final int PASS_SCROLL = 3;
+
+    int mPass;
+    long mStartNanos;
+    long mDurationNanos;
+    int mViewsObtained;
+    int mViewsMeasured;
+    int mViewsRecycled;
+    int mPagesComputed;
+
+    void begin(int pass) {
+        mPass = pass;
+        mViewsObtained = 0;
+        mViewsMeasured = 0;
+        mViewsRecycled = 0;
+        mPagesComputed = 0;
+        mStartNanos = System.nanoTime();
+    }
+
+    void end() {
+        mDurationNanos = System.nanoTime() - mStartNanos;
+    }
+
+    /**
+     * Returns one of {@link #PASS_MEASURE}, {@link #PASS_LAYOUT}, {@link #PASS_PRE_LAYOUT}
+     * and {@link #PASS_SCROLL}.
+     */
+    public int getPass() {
+        return mPass;
+    }
+
+    public long getDurationNanos() {
+        return mDurationNanos;
+    }
+
+    /**
+     * Returns how many views are taken from the recycler, which are the views created or
+     * bound by the adapter unless they come back from the scrap.
+     */
+    public int getViewsObtained() {
+        return mViewsObtained;
+    }
+
+    public int getViewsMeasured() {
+        return mViewsMeasured;
+    }
+
+    public int getViewsRecycled() {
+        return mViewsRecycled;
+    }
+
+    public int getPagesComputed() {
+        return mPagesComputed;
+    }
+}
@@ -0,0 +1,100 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2018 Opera Software AS. All rights reserved.
+//
+// This file is an original work developed by Opera Software AS
+
+package com.ljr.com.multi.paging;
+
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.v4.view.ViewCompat;
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * A view pool to share between several paging grids on one screen. Every
+ * {@link GridPagerLayoutManager} using it asks for one page of views of each view type it
+ * lays out, and the pool keeps as many as the largest page asked for, not the sum of them,
+ * since only one grid is scrolled at a time. The views a pool is missing are created when
+ * the main thread is idle, so the first page scrolled into does not inflate all its views
+ * in one frame.
+ */
+public class PagerRecycledViewPool extends RecyclerView.RecycledViewPool {
+    private final int mMaxRecycledViews;
+    // The number of views kept for every view type
+    private final SparseIntArray mCapacities = new SparseIntArray();
+    // The grid to create the views of every view type for, until the pool has enough of them
+    private final SparseArray<WeakReference<RecyclerView>> mWarmUpParents = new SparseArray<>();
+    private boolean mWarmingUp;
+
+    private final MessageQueue.IdleHandler mWarmUpHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            mWarmingUp = warmUpOne();
+            return mWarmingUp;
+        }
+    };
+
+    public PagerRecycledViewPool() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxRecycledViews The most views to keep of one view type, whatever the page
+     * capacity of the grids is.
+     */
+    public PagerRecycledViewPool(int maxRecycledViews) {
+        Check.isTrue(maxRecycledViews > 0);
+        mMaxRecycledViews = maxRecycledViews;
+    }
+
+    /**
+     * Makes room for one page of views of the given view type, and creates the missing ones
+     * with the adapter of the given grid when the main thread is idle. It must be called on
+     * the main thread.
+     */
+    void requestPageCapacity(RecyclerView parent, int viewType, int pageCapacity) {
+        final int capacity = Math.min(pageCapacity, mMaxRecycledViews);
+        if (capacity <= mCapacities.get(viewType)) {
+            return;
+        }
+        mCapacities.put(viewType, capacity);
+        setMaxRecycledViews(viewType, capacity);
+        mWarmUpParents.put(viewType, new WeakReference<>(parent));
+        if (!mWarmingUp) {
+            mWarmingUp = true;
+            Looper.myQueue().addIdleHandler(mWarmUpHandler);
+        }
+    }
+
+    /**
+     * Creates one missing view.
+     * @return Whether there are more views to create.
+     */
+    private boolean warmUpOne() {
+        while (mWarmUpParents.size() > 0) {
+            final int viewType = mWarmUpParents.keyAt(0);
+            final RecyclerView parent = mWarmUpParents.valueAt(0).get();
+            final RecyclerView.Adapter adapter = parent != null ? parent.getAdapter() : null;
+            if (adapter == null || parent.getRecycledViewPool() != this
+                    || !ViewCompat.isAttachedToWindow(parent)
+                    || getRecycledViewCount(viewType) >= mCapacities.get(viewType)) {
+                mWarmUpParents.removeAt(0);
+                continue;
+            }
+            putRecycledView(adapter.createViewHolder(parent, viewType));
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        mWarmUpParents.clear();
+    }
+}
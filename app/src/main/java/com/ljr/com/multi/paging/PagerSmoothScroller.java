@@ -0,0 +1,85 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2018 Opera Software AS. All rights reserved.
+//
+// This file is an original work developed by Opera Software AS
+
+package com.ljr.com.multi.paging;
+
+import android.content.Context;
+import android.support.v7.widget.LinearSmoothScroller;
+import android.view.View;
+
+/**
+ * It scrolls smoothly to the page of the target position, along the orientation of the
+ * layout manager. The direction comes from the page of the target, and once the target is
+ * attached the scroll ends at the start of its page instead of at the item itself. When it
+ * settles a fling, it moves toward a target which is not attached yet at the fling velocity,
+ * and decelerates from that velocity to the start of the page, either one only when it is
+ * faster than the default, so a fast fling settles fast. While it crosses more than one
+ * page, the layout manager only fills the pages which become visible.
+ */
+class PagerSmoothScroller extends LinearSmoothScroller {
+    private final GridPagerLayoutManager mLayoutManager;
+    private final int mVelocity;
+
+    PagerSmoothScroller(Context context, GridPagerLayoutManager layoutManager) {
+        this(context, layoutManager, 0);
+    }
+
+    PagerSmoothScroller(Context context, GridPagerLayoutManager layoutManager, int velocity) {
+        super(context);
+        mLayoutManager = layoutManager;
+        mVelocity = Math.abs(velocity);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        final int distance = mLayoutManager.getScrollDistanceToPosition(getTargetPosition());
+        if (Math.abs(distance) > mLayoutManager.getPageExtent()) {
+            mLayoutManager.setCrossingPages(true);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mLayoutManager.setCrossingPages(false);
+    }
+
+    @Override
+    public int calculateDxToMakeVisible(View view, int snapPreference) {
+        return mLayoutManager.canScrollHorizontally()
+                ? -mLayoutManager.getScrollDistanceToPosition(getTargetPosition()) : 0;
+    }
+
+    @Override
+    public int calculateDyToMakeVisible(View view, int snapPreference) {
+        return mLayoutManager.canScrollVertically()
+                ? -mLayoutManager.getScrollDistanceToPosition(getTargetPosition()) : 0;
+    }
+
+    /**
+     * While the target is not attached, it scrolls toward it at the fling velocity instead
+     * of the fixed speed, unless that is slower.
+     */
+    @Override
+    protected int calculateTimeForScrolling(int dx) {
+        final int time = super.calculateTimeForScrolling(dx);
+        if (mVelocity == 0) {
+            return time;
+        }
+        return (int) Math.max(1, Math.min(time, 1000L * Math.abs(dx) / mVelocity));
+    }
+
+    @Override
+    protected int calculateTimeForDeceleration(int dx) {
+        final int time = super.calculateTimeForDeceleration(dx);
+        if (mVelocity == 0) {
+            return time;
+        }
+        // Decelerating from the fling velocity to zero covers dx in 2 * dx / velocity
+        return (int) Math.max(1, Math.min(time, 2000L * Math.abs(dx) / mVelocity));
+    }
+}
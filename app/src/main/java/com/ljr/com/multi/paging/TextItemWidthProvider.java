@@ -0,0 +1,74 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2018 Opera Software AS. All rights reserved.
+//
+// This file is an original work developed by Opera Software AS
+
+package com.ljr.com.multi.paging;
+
+import android.text.Layout;
+import android.text.TextPaint;
+
+/**
+ * It measures the width of single line text items, such as a wrap_content TextView, with
+ * the paint of the text. Every thread measures with its own copy of the paint, since a
+ * paint is not thread safe. An item without text is a placeholder of a paged data source,
+ * and its width is an estimate. A single line item is as tall as any other, so the height of
+ * the first item measured by the layout manager is the height of every row.
+ */
+public class TextItemWidthProvider implements ItemWidthProvider {
+
+    /**
+     * It gives the text of the items, or null if the item is not loaded yet. It may be
+     * called on a background thread.
+     */
+    public interface TextSource {
+        CharSequence getText(int position);
+    }
+
+    // Every thread measures with its own copy of the paint, so the page plan computed in
+    // background never waits for a measure on the main thread
+    private final ThreadLocal<TextPaint> mPaints;
+    private final int mExtraWidth;
+    private final int mPlaceholderWidth;
+    private final TextSource mTextSource;
+
+    /**
+     * @param paint The paint of the item text.
+     * @param extraWidth The width added to the text, such as the paddings and the margins.
+     * @param textSource The source of the item text.
+     */
+    public TextItemWidthProvider(TextPaint paint, int extraWidth, TextSource textSource) {
+        this(paint, extraWidth, extraWidth, textSource);
+    }
+
+    /**
+     * @param placeholderWidth The estimated width of the items which are not loaded.
+     */
+    public TextItemWidthProvider(TextPaint paint, int extraWidth, int placeholderWidth,
+            TextSource textSource) {
+        Check.isNotNull(paint);
+        Check.isNotNull(textSource);
+        // The copy is taken here, since the given paint may be changed later. It is never
+        // changed itself, so it can be copied by any thread.
+        final TextPaint sourcePaint = new TextPaint(paint);
+        mPaints = new ThreadLocal<TextPaint>() {
+            @Override
+            protected TextPaint initialValue() {
+                return new TextPaint(sourcePaint);
+            }
+        };
+        mExtraWidth = extraWidth;
+        mPlaceholderWidth = placeholderWidth;
+        mTextSource = textSource;
+    }
+
+    @Override
+    public int getItemWidth(int position) {
+        final CharSequence text = mTextSource.getText(position);
+        if (text == null) {
+            return mPlaceholderWidth;
+        }
+        return (int) Math.ceil(Layout.getDesiredWidth(text, mPaints.get())) + mExtraWidth;
+    }
+}
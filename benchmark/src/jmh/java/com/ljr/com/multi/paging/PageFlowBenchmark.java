@@ -0,0 +1,117 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2018 Opera Software AS. All rights reserved.
+//
+// This file is an original work developed by Opera Software AS
+
+package com.ljr.com.multi.paging;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * It measures the page flow of {@link PageIndex} over the same kind of data as the demo,
+ * which is strings of 10 to 19 characters behind their position, on one or two lines in the
+ * mixed height mode. A layout is the flow of all items plus the place of every item in its
+ * page, and a relayout is the flow from the page of the middle item, which is what an insert
+ * there costs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PageFlowBenchmark {
+    private static final int PAGE_WIDTH = 1080;
+    private static final int PAGE_HEIGHT = 640;
+    private static final int PADDING = 18;
+    private static final int ITEM_HEIGHT = 160;
+    private static final int COLUMNS = 4;
+    private static final int CHAR_WIDTH = 24;
+    private static final int ITEM_PADDING = 40;
+
+    public enum WidthMode {
+        FIXED_COLUMN,
+        IRREGULAR,
+        IRREGULAR_MIXED_HEIGHT
+    }
+
+    @Param({"1000", "10000", "100000"})
+    public int mItemCount;
+
+    @Param({"FIXED_COLUMN", "IRREGULAR", "IRREGULAR_MIXED_HEIGHT"})
+    public WidthMode mWidthMode;
+
+    @Param({"false", "true"})
+    public boolean mRevertLayout;
+
+    private int[] mWidths;
+    private int[] mHeights;
+    private final PageIndex mPageIndex = new PageIndex();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final int availableWidth = PAGE_WIDTH - 2 * PADDING;
+        final Random random = new Random(mItemCount);
+        mWidths = new int[mItemCount];
+        mHeights = new int[mItemCount];
+        for (int i = 0; i < mItemCount; i++) {
+            mHeights[i] = mWidthMode == WidthMode.IRREGULAR_MIXED_HEIGHT && random.nextInt(4) == 0
+                    ? 2 * ITEM_HEIGHT : ITEM_HEIGHT;
+            if (mWidthMode == WidthMode.FIXED_COLUMN) {
+                mWidths[i] = availableWidth / COLUMNS;
+            } else {
+                final int length = String.valueOf(i).length() + 3
+                        + Math.max(10, random.nextInt(20));
+                mWidths[i] = Math.min(availableWidth, length * CHAR_WIDTH + ITEM_PADDING);
+            }
+        }
+        // The arrays of the index grow once, so the measured layouts are the steady ones
+        flow();
+    }
+
+    @Benchmark
+    public void layout(Blackhole blackhole) {
+        flow();
+        blackhole.consume(place());
+    }
+
+    @Benchmark
+    public void relayoutFromMiddle(Blackhole blackhole) {
+        final int start = mPageIndex.truncate(mItemCount / 2);
+        for (int i = start; i < mItemCount; i++) {
+            mPageIndex.append(mWidths[i], mHeights[i]);
+        }
+        blackhole.consume(mPageIndex.getPageCount());
+    }
+
+    private void flow() {
+        mPageIndex.reset(PAGE_WIDTH - 2 * PADDING, PAGE_HEIGHT);
+        for (int i = 0; i < mItemCount; i++) {
+            mPageIndex.append(mWidths[i], mHeights[i]);
+        }
+    }
+
+    private long place() {
+        final int pageCount = mPageIndex.getPageCount();
+        long sum = 0;
+        for (int page = 0; page < pageCount; page++) {
+            final int slot = mRevertLayout ? pageCount - 1 - page : page;
+            final int last = mPageIndex.getLastPosition(page);
+            for (int i = mPageIndex.getFirstPosition(page); i <= last; i++) {
+                sum += slot * PAGE_WIDTH + mPageIndex.getLeftInPage(i, PAGE_WIDTH, PADDING,
+                        PADDING, mRevertLayout) + mPageIndex.getTop(i);
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,335 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2018 Opera Software AS. All rights reserved.
+//
+// This file is an original work developed by Opera Software AS
+
+package com.ljr.com.multi.paging;
+
+import java.util.Arrays;
+
+/**
+ * It runs the page flow and records the page, the row, the offset, the top and the size of
+ * every position. The pages are zero based and the offset is the width of the items before
+ * the position in its row, so it does not depend on the paddings or the layout direction.
+ * A row is as tall as its tallest item, and the top is the height of the rows above it in
+ * its page, so a page holds as many rows as fit in its height.
+ * Positions have to be appended in order, and a page always starts with a new row, so the
+ * pages after a changed position can be dropped and recomputed without touching the pages
+ * before it. When the sizes after some position are known to be the same, the dropped
+ * pages are kept, and the flow takes them back as soon as it starts one of them again.
+ * It does not depend on any view, so it can be built on any thread, and it lives in the
+ * core module, which has no Android dependency, so it can be benchmarked on the JVM.
+ */
+public final class PageIndex {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] mPageStarts = new int[INITIAL_CAPACITY];
+    private int[] mRows = new int[INITIAL_CAPACITY];
+    private int[] mOffsets = new int[INITIAL_CAPACITY];
+    private int[] mWidths = new int[INITIAL_CAPACITY];
+    private int[] mTops = new int[INITIAL_CAPACITY];
+    private int[] mHeights = new int[INITIAL_CAPACITY];
+    private int mPageCount;
+    private int mItemCount;
+    private int mAvailableWidth;
+    private int mAvailableHeight;
+    // The row being filled: its index and top in the page, its first position and its size
+    private int mRow;
+    private int mRowTop;
+    private int mRowStart;
+    private int mRowWidth;
+    private int mRowHeight;
+    private boolean mPageStarting;
+    // The pages dropped by the last truncate, and the end of the flow before it
+    private int[] mDroppedPageStarts = new int[0];
+    private int mDroppedPageCount;
+    private int mDroppedItemCount;
+    private int mDroppedRow;
+    private int mDroppedRowTop;
+    private int mDroppedRowStart;
+    private int mDroppedRowWidth;
+    private int mDroppedRowHeight;
+    private boolean mDroppedPageStarting;
+    private int mUnchangedFrom = Integer.MAX_VALUE;
+    private int mReusedPageCount;
+
+    /**
+     * Clears the index for a new flow.
+     * @param availableWidth The width of a row, which is the page width without paddings.
+     * @param availableHeight The height the rows of a page can take.
+     */
+    public void reset(int availableWidth, int availableHeight) {
+        mAvailableWidth = availableWidth;
+        mAvailableHeight = availableHeight;
+        mPageCount = 0;
+        mItemCount = 0;
+        mPageStarting = true;
+        mDroppedPageCount = 0;
+        mUnchangedFrom = Integer.MAX_VALUE;
+        mReusedPageCount = 0;
+    }
+
+    public boolean matches(int availableWidth, int availableHeight) {
+        return mAvailableWidth == availableWidth && mAvailableHeight == availableHeight;
+    }
+
+    /**
+     * Appends the next position to the flow. It is put at the end of the current row, or
+     * at the start of a new row if it exceeds the row width. A new row which exceeds the
+     * bottom of the page starts a new page, and so does the current row if the position
+     * makes it exceed the bottom, unless it is the first row of its page. If the new page is
+     * one of the dropped pages, the flow is completed with them, so {@link #getItemCount()}
+     * may grow by more than one.
+     */
+    public void append(int width, int height) {
+        if (mPageStarting) {
+            if (reuseDroppedPages()) {
+                return;
+            }
+            addPage();
+        } else if (mRowWidth > 0 && exceedRowWidth(mRowWidth + width)) {
+            if (exceedBottom(mRowTop + mRowHeight, height)) {
+                if (reuseDroppedPages()) {
+                    return;
+                }
+                addPage();
+            } else {
+                addRow();
+            }
+        } else if (height > mRowHeight && mRow > 0 && exceedBottom(mRowTop, height)) {
+            moveRowToNewPage();
+        }
+        mRows = ensureCapacity(mRows, mItemCount + 1);
+        mOffsets = ensureCapacity(mOffsets, mItemCount + 1);
+        mWidths = ensureCapacity(mWidths, mItemCount + 1);
+        mTops = ensureCapacity(mTops, mItemCount + 1);
+        mHeights = ensureCapacity(mHeights, mItemCount + 1);
+        mRows[mItemCount] = mRow;
+        mOffsets[mItemCount] = mRowWidth;
+        mWidths[mItemCount] = width;
+        mTops[mItemCount] = mRowTop;
+        mHeights[mItemCount] = height;
+        mRowWidth += width;
+        mRowHeight = Math.max(mRowHeight, height);
+        mItemCount++;
+    }
+
+    private boolean exceedRowWidth(int rowWidth) {
+        return rowWidth > mAvailableWidth;
+    }
+
+    private boolean exceedBottom(int rowTop, int rowHeight) {
+        return rowHeight > mAvailableHeight - rowTop;
+    }
+
+    private void addRow() {
+        mRow++;
+        mRowTop += mRowHeight;
+        startRow();
+    }
+
+    private void addPage() {
+        mPageStarts = ensureCapacity(mPageStarts, mPageCount + 1);
+        mPageStarts[mPageCount++] = mItemCount;
+        mRow = 0;
+        mRowTop = 0;
+        mPageStarting = false;
+        startRow();
+    }
+
+    private void startRow() {
+        mRowStart = mItemCount;
+        mRowWidth = 0;
+        mRowHeight = 0;
+    }
+
+    /**
+     * Starts a new page with the current row, which has become too tall for its page. Its
+     * positions keep their offsets and only move to the top.
+     */
+    private void moveRowToNewPage() {
+        mPageStarts = ensureCapacity(mPageStarts, mPageCount + 1);
+        mPageStarts[mPageCount++] = mRowStart;
+        for (int i = mRowStart; i < mItemCount; i++) {
+            mRows[i] = 0;
+            mTops[i] = 0;
+        }
+        mRow = 0;
+        mRowTop = 0;
+    }
+
+    /**
+     * Takes back the dropped pages if one of them starts at the next position and the widths
+     * from there are unchanged, since the flow from the start of a page only depends on the
+     * sizes after it. The positions after the current one still hold their rows, offsets,
+     * tops and sizes, so only the page starts are copied.
+     */
+    private boolean reuseDroppedPages() {
+        if (mDroppedPageCount == 0 || mItemCount < mUnchangedFrom) {
+            return false;
+        }
+        final int index =
+                Arrays.binarySearch(mDroppedPageStarts, 0, mDroppedPageCount, mItemCount);
+        if (index < 0) {
+            return false;
+        }
+        final int pages = mDroppedPageCount - index;
+        mPageStarts = ensureCapacity(mPageStarts, mPageCount + pages);
+        System.arraycopy(mDroppedPageStarts, index, mPageStarts, mPageCount, pages);
+        mPageCount += pages;
+        mReusedPageCount += pages;
+        mItemCount = mDroppedItemCount;
+        mRow = mDroppedRow;
+        mRowTop = mDroppedRowTop;
+        mRowStart = mDroppedRowStart;
+        mRowWidth = mDroppedRowWidth;
+        mRowHeight = mDroppedRowHeight;
+        mPageStarting = mDroppedPageStarting;
+        mDroppedPageCount = 0;
+        return true;
+    }
+
+    /**
+     * Drops the page holding the position before the given one and all pages after it, since
+     * a changed position at the start of a page may move back to the page before. If that
+     * position is in the first row of its page, the page before is dropped too, since the
+     * row may have been moved for a position which is not as tall anymore. A position after
+     * the last one drops the last page, since the new positions may be appended to it.
+     * @return The first position which has to be appended again.
+     */
+    public int truncate(int position) {
+        return truncate(position, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Drops the pages like {@link #truncate(int)}, but keeps them to be taken back by the
+     * flow. It is only valid if the item count is not changed.
+     * @param unchangedFrom The first position from which the sizes are the same as before.
+     * @return The first position which has to be appended again.
+     */
+    public int truncate(int position, int unchangedFrom) {
+        mDroppedPageCount = 0;
+        mUnchangedFrom = unchangedFrom;
+        if (mItemCount == 0) {
+            return 0;
+        }
+        final int previous = Math.max(0, Math.min(position, mItemCount) - 1);
+        int page = getPage(previous);
+        if (page > 0 && mRows[previous] == 0) {
+            page--;
+        }
+        if (unchangedFrom < mItemCount) {
+            mDroppedPageCount = mPageCount - page;
+            mDroppedPageStarts = ensureCapacity(mDroppedPageStarts, mDroppedPageCount);
+            System.arraycopy(mPageStarts, page, mDroppedPageStarts, 0, mDroppedPageCount);
+            mDroppedItemCount = mItemCount;
+            mDroppedRow = mRow;
+            mDroppedRowTop = mRowTop;
+            mDroppedRowStart = mRowStart;
+            mDroppedRowWidth = mRowWidth;
+            mDroppedRowHeight = mRowHeight;
+            mDroppedPageStarting = mPageStarting;
+        }
+        mPageCount = page;
+        mItemCount = mPageStarts[page];
+        mPageStarting = true;
+        return mItemCount;
+    }
+
+    public int getPageCount() {
+        return mPageCount;
+    }
+
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    /**
+     * Returns the number of dropped pages the flow has taken back since the last reset. They
+     * are counted by {@link #getPageCount()} but were not computed again.
+     */
+    public int getReusedPageCount() {
+        return mReusedPageCount;
+    }
+
+    /**
+     * Returns the page of the given position. The page starts are sorted, so it is a
+     * binary search.
+     */
+    public int getPage(int position) {
+        Check.isTrue(position >= 0 && position < mItemCount);
+        int low = 0;
+        int high = mPageCount - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (mPageStarts[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public int getFirstPosition(int page) {
+        return mPageStarts[page];
+    }
+
+    public int getLastPosition(int page) {
+        return (page + 1 < mPageCount ? mPageStarts[page + 1] : mItemCount) - 1;
+    }
+
+    public int getRow(int position) {
+        return mRows[position];
+    }
+
+    public int getOffset(int position) {
+        return mOffsets[position];
+    }
+
+    public int getWidth(int position) {
+        return mWidths[position];
+    }
+
+    /**
+     * Returns the top of the row of the given position inside its page.
+     */
+    public int getTop(int position) {
+        return mTops[position];
+    }
+
+    public int getHeight(int position) {
+        return mHeights[position];
+    }
+
+    /**
+     * Returns the left of the given position inside its page. The offset is counted from
+     * the left padding, or from the right padding in the reverse layout.
+     */
+    public int getLeftInPage(int position, int pageWidth, int paddingLeft, int paddingRight,
+            boolean revertLayout) {
+        return revertLayout
+                ? pageWidth - paddingRight - mOffsets[position] - mWidths[position]
+                : paddingLeft + mOffsets[position];
+    }
+
+    /**
+     * Returns a copy of the widths of all positions. With the heights, it is all the flow
+     * needs to build the same pages again in the same page size.
+     */
+    public int[] copyWidths() {
+        return Arrays.copyOf(mWidths, mItemCount);
+    }
+
+    public int[] copyHeights() {
+        return Arrays.copyOf(mHeights, mItemCount);
+    }
+
+    private static int[] ensureCapacity(int[] array, int size) {
+        if (array.length >= size) {
+            return array;
+        }
+        return Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+}
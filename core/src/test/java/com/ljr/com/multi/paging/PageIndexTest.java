@@ -0,0 +1,236 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2018 Opera Software AS. All rights reserved.
+//
+// This file is an original work developed by Opera Software AS
+
+package com.ljr.com.multi.paging;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The pages are 100 wide and 100 high, so items of 40 by 50 make rows of two items and
+ * pages of two rows.
+ */
+public class PageIndexTest {
+    private static final int AVAILABLE_WIDTH = 100;
+    private static final int AVAILABLE_HEIGHT = 100;
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 50;
+    private static final int RANDOM_FLOWS = 2000;
+
+    @Test
+    public void breaksRowsAndPages() {
+        final PageIndex index = flow(sameSizes(9));
+        assertEquals(9, index.getItemCount());
+        assertEquals(3, index.getPageCount());
+        assertPlace(index, 0, 0, 0, 0, 0);
+        assertPlace(index, 1, 0, 0, WIDTH, 0);
+        assertPlace(index, 2, 0, 1, 0, HEIGHT);
+        assertPlace(index, 3, 0, 1, WIDTH, HEIGHT);
+        assertPlace(index, 4, 1, 0, 0, 0);
+        assertPlace(index, 8, 2, 0, 0, 0);
+    }
+
+    @Test
+    public void breaksRowOnWidthOnly() {
+        final PageIndex index = new PageIndex();
+        index.reset(AVAILABLE_WIDTH, AVAILABLE_HEIGHT);
+        index.append(60, HEIGHT);
+        index.append(40, HEIGHT);
+        index.append(1, HEIGHT);
+        // An item wider than the row still takes a row of its own
+        index.append(150, HEIGHT);
+        assertPlace(index, 1, 0, 0, 60, 0);
+        assertPlace(index, 2, 0, 1, 0, HEIGHT);
+        assertPlace(index, 3, 1, 0, 0, 0);
+    }
+
+    @Test
+    public void getPageAtPageBoundaries() {
+        final PageIndex index = flow(sameSizes(9));
+        assertEquals(0, index.getPage(0));
+        assertEquals(0, index.getPage(3));
+        assertEquals(1, index.getPage(4));
+        assertEquals(1, index.getPage(7));
+        assertEquals(2, index.getPage(8));
+        assertEquals(0, index.getFirstPosition(0));
+        assertEquals(3, index.getLastPosition(0));
+        assertEquals(4, index.getFirstPosition(1));
+        assertEquals(7, index.getLastPosition(1));
+        assertEquals(8, index.getFirstPosition(2));
+        assertEquals(8, index.getLastPosition(2));
+    }
+
+    @Test
+    public void makesRowsAsTallAsTheirTallestItem() {
+        final int[][] sizes = sameSizes(6);
+        sizes[2][1] = 20;
+        sizes[3][1] = 60;
+        final PageIndex index = flow(sizes);
+        // The second row is too tall for the first page, so it moves to a new one
+        assertEquals(3, index.getPageCount());
+        assertPlace(index, 2, 1, 0, 0, 0);
+        assertPlace(index, 3, 1, 0, WIDTH, 0);
+        assertPlace(index, 4, 2, 0, 0, 0);
+    }
+
+    @Test
+    public void truncateInFirstRowDropsPageBefore() {
+        final PageIndex index = flow(sameSizes(12));
+        // The position before 5 is in the first row of page 1
+        assertEquals(0, index.truncate(5));
+        assertEquals(0, index.getPageCount());
+        assertEquals(0, index.getItemCount());
+    }
+
+    @Test
+    public void truncateAfterFirstRowKeepsPagesBefore() {
+        final PageIndex index = flow(sameSizes(12));
+        assertEquals(4, index.truncate(7));
+        assertEquals(1, index.getPageCount());
+        assertEquals(4, index.getItemCount());
+    }
+
+    @Test
+    public void truncateAfterLastPositionDropsLastPage() {
+        final PageIndex index = flow(sameSizes(11));
+        assertEquals(8, index.truncate(11));
+        assertEquals(2, index.getPageCount());
+    }
+
+    @Test
+    public void appendAfterTruncateMatchesFreshFlow() {
+        final int[][] sizes = sameSizes(12);
+        final PageIndex index = flow(sizes);
+        sizes[5][0] = 90;
+        appendFrom(index, index.truncate(5), sizes);
+        assertSameFlow(flow(sizes), index);
+    }
+
+    @Test
+    public void reusesDroppedPagesFromExactPageStart() {
+        final int[][] sizes = sameSizes(12);
+        final PageIndex index = flow(sizes);
+        // The second row of the first page changes, and the sizes are the same from page 1
+        sizes[2][0] = 50;
+        sizes[3][0] = 50;
+        appendFrom(index, index.truncate(2, 4), sizes);
+        assertSameFlow(flow(sizes), index);
+    }
+
+    @Test
+    public void reusesDroppedPagesAfterAppendingUpToThem() {
+        final int[][] sizes = sameSizes(12);
+        final PageIndex index = flow(sizes);
+        sizes[2][0] = 50;
+        index.truncate(2, 3);
+        for (int i = 0; i < 4; i++) {
+            index.append(sizes[i][0], sizes[i][1]);
+        }
+        // The next page starts at 4, which is a dropped page, so the flow is completed
+        index.append(sizes[4][0], sizes[4][1]);
+        assertEquals(12, index.getItemCount());
+        assertEquals(2, index.getReusedPageCount());
+        assertSameFlow(flow(sizes), index);
+    }
+
+    @Test
+    public void reusesDroppedPagesAfterChangeInMovedRow() {
+        final int[][] sizes = sameSizes(12);
+        sizes[2][1] = 20;
+        sizes[3][1] = 60;
+        final PageIndex index = flow(sizes);
+        assertEquals(2, index.getFirstPosition(1));
+        // The row is not too tall anymore, so it goes back to the first page
+        sizes[3][1] = 20;
+        appendFrom(index, index.truncate(3, 4), sizes);
+        assertSameFlow(flow(sizes), index);
+        assertEquals(4, index.getFirstPosition(1));
+    }
+
+    @Test
+    public void reusesDroppedPagesAfterChangeMakingMovedRow() {
+        final int[][] sizes = sameSizes(12);
+        sizes[2][1] = 20;
+        final PageIndex index = flow(sizes);
+        sizes[3][1] = 60;
+        appendFrom(index, index.truncate(3, 4), sizes);
+        assertSameFlow(flow(sizes), index);
+        assertEquals(2, index.getFirstPosition(1));
+    }
+
+    @Test
+    public void truncateAndReuseMatchesFreshFlowOnRandomChanges() {
+        final Random random = new Random(15);
+        for (int flow = 0; flow < RANDOM_FLOWS; flow++) {
+            final int count = 1 + random.nextInt(120);
+            final int[][] sizes = new int[count][];
+            for (int i = 0; i < count; i++) {
+                sizes[i] = randomSize(random);
+            }
+            final PageIndex index = flow(sizes);
+            final int start = random.nextInt(count);
+            final int end = Math.min(count, start + 1 + random.nextInt(5));
+            for (int i = start; i < end; i++) {
+                sizes[i] = randomSize(random);
+            }
+            appendFrom(index, index.truncate(start, end), sizes);
+            assertSameFlow(flow(sizes), index);
+        }
+    }
+
+    private static int[] randomSize(Random random) {
+        return new int[] {10 + random.nextInt(60), 20 + 20 * random.nextInt(3)};
+    }
+
+    static int[][] sameSizes(int count) {
+        final int[][] sizes = new int[count][];
+        for (int i = 0; i < count; i++) {
+            sizes[i] = new int[] {WIDTH, HEIGHT};
+        }
+        return sizes;
+    }
+
+    static PageIndex flow(int[][] sizes) {
+        final PageIndex index = new PageIndex();
+        index.reset(AVAILABLE_WIDTH, AVAILABLE_HEIGHT);
+        appendFrom(index, 0, sizes);
+        return index;
+    }
+
+    static void appendFrom(PageIndex index, int start, int[][] sizes) {
+        assertEquals(start, index.getItemCount());
+        while (index.getItemCount() < sizes.length) {
+            final int[] size = sizes[index.getItemCount()];
+            index.append(size[0], size[1]);
+        }
+    }
+
+    static void assertSameFlow(PageIndex expected, PageIndex actual) {
+        assertEquals(expected.getItemCount(), actual.getItemCount());
+        assertEquals(expected.getPageCount(), actual.getPageCount());
+        for (int page = 0; page < expected.getPageCount(); page++) {
+            assertEquals(expected.getFirstPosition(page), actual.getFirstPosition(page));
+        }
+        for (int i = 0; i < expected.getItemCount(); i++) {
+            assertEquals("row of " + i, expected.getRow(i), actual.getRow(i));
+            assertEquals("offset of " + i, expected.getOffset(i), actual.getOffset(i));
+            assertEquals("top of " + i, expected.getTop(i), actual.getTop(i));
+            assertEquals("width of " + i, expected.getWidth(i), actual.getWidth(i));
+            assertEquals("height of " + i, expected.getHeight(i), actual.getHeight(i));
+        }
+    }
+
+    private static void assertPlace(PageIndex index, int position, int page, int row,
+            int offset, int top) {
+        assertEquals("page of " + position, page, index.getPage(position));
+        assertEquals("row of " + position, row, index.getRow(position));
+        assertEquals("offset of " + position, offset, index.getOffset(position));
+        assertEquals("top of " + position, top, index.getTop(position));
+    }
+}